@@ -0,0 +1,130 @@
+package com.munon.turboimageview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per sample cost of a drag and of a pinch through the GestureEngine,
+ * replayed from a TouchRecorder recording: decoding, the mode state machine
+ * and the drag math, down to the transform update of the one object, which
+ * is kept in a SceneStore the way MultiTouchObject.setPos() keeps its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GestureBenchmark {
+    private static final float HALF_WIDTH = 160.0f;
+    private static final float HALF_HEIGHT = 120.0f;
+    private static final float OUTSET = 3.0f;
+    private static final int ACTION_DOWN = 0;
+    private static final int ACTION_UP = 1;
+
+    private final SceneStore store = new SceneStore();
+    private int slot;
+    private float centerX;
+    private float centerY;
+    private float scale;
+    private float angle;
+
+    private TouchReplayer drag;
+    private TouchReplayer pinch;
+
+    /** A canvas holding a single object, the store slot */
+    private final MultiTouchObjectCanvas<Integer> canvas = new MultiTouchObjectCanvas<Integer>() {
+        @Override
+        public Integer getDraggableObjectAtPoint(PointInfo touchPoint) {
+            return store.containsPoint(slot, touchPoint.getX(), touchPoint.getY()) ? slot : null;
+        }
+
+        @Override
+        public boolean pointInObjectGrabArea(PointInfo touchPoint, Integer obj) {
+            return false;
+        }
+
+        @Override
+        public void getPositionAndScale(Integer obj, PositionAndScale objPosAndScaleOut) {
+            objPosAndScaleOut.set(centerX, centerY, true, scale, false, scale, scale, true, angle);
+        }
+
+        @Override
+        public boolean setPositionAndScale(Integer obj, PositionAndScale newObjPosAndScale,
+                                           PointInfo touchPoint) {
+            place(newObjPosAndScale.getXOff(), newObjPosAndScale.getYOff(),
+                newObjPosAndScale.getScale(), newObjPosAndScale.getAngle());
+            return true;
+        }
+
+        @Override
+        public void selectObject(Integer obj, PointInfo touchPoint) {
+        }
+
+        @Override
+        public void deselectAll() {
+        }
+
+        @Override
+        public void canvasTouched() {
+        }
+    };
+
+    private final GestureEngine<Integer> engine = new GestureEngine<>(canvas, true);
+
+    @Setup
+    public void setUp() throws IOException {
+        slot = store.allocate();
+        drag = record(Workloads.drag());
+        pinch = record(Workloads.pinch());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Workloads.SAMPLE_COUNT)
+    public float drag() {
+        return run(drag);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Workloads.SAMPLE_COUNT)
+    public float pinch() {
+        return run(pinch);
+    }
+
+    private float run(TouchReplayer gesture) {
+        place(540.0f, 960.0f, 1.0f, 0.0f);
+        gesture.replay(engine);
+        return centerX + centerY + scale + angle;
+    }
+
+    private void place(float x, float y, float scale, float angle) {
+        centerX = x;
+        centerY = y;
+        this.scale = scale;
+        this.angle = angle;
+        store.set(slot, x, y, HALF_WIDTH * scale, HALF_HEIGHT * scale,
+            (float) Math.cos(angle), (float) Math.sin(angle), OUTSET);
+    }
+
+    /** The workload as one gesture, from the first finger down to the last one up */
+    private static TouchReplayer record(Workloads gesture) throws IOException {
+        TouchRecorder recorder = new TouchRecorder();
+        int last = Workloads.SAMPLE_COUNT - 1;
+        for (int i = 0; i <= last; i++) {
+            int action = i == 0 ? ACTION_DOWN : i == last ? ACTION_UP : GestureEngine.ACTION_MOVE;
+            recorder.record(gesture.pointerCount, gesture.xs[i], gesture.ys[i],
+                gesture.pressures, gesture.pointerIds, action, i != last,
+                gesture.eventTimes[i]);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        return new TouchReplayer(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
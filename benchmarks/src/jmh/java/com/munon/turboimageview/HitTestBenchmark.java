@@ -0,0 +1,176 @@
+package com.munon.turboimageview;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finding the top object under a touch, moving an object and culling to the
+ * viewport, in scenes of rotated objects spread over a board that grows with
+ * the object count (about 16 objects per screen).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HitTestBenchmark {
+    private static final int PROBE_COUNT = 1024;
+    private static final float SCREEN_WIDTH = 1080.0f;
+    private static final float SCREEN_HEIGHT = 1920.0f;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int objectCount;
+
+    private final SceneStore store = new SceneStore();
+    private final SpatialGrid<Item> grid = new SpatialGrid<>();
+    private final ZOrderList<Item> zOrder = new ZOrderList<>();
+    private final ArrayList<Item> candidates = new ArrayList<>();
+    private Item[] items;
+    private float[] centerXs;
+    private float[] centerYs;
+    private float[] probeXs;
+    private float[] probeYs;
+    private float boardWidth;
+    private float boardHeight;
+    private int moved;
+
+    /** Grid entries need identity, the slot alone is not enough */
+    private static final class Item {
+        final int slot;
+
+        Item(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        float side = (float) Math.sqrt(objectCount / 16.0f);
+        boardWidth = SCREEN_WIDTH * side;
+        boardHeight = SCREEN_HEIGHT * side;
+
+        items = new Item[objectCount];
+        centerXs = new float[objectCount];
+        centerYs = new float[objectCount];
+        for (int i = 0; i < objectCount; i++) {
+            items[i] = new Item(store.allocate());
+            place(items[i], random.nextFloat() * boardWidth, random.nextFloat() * boardHeight,
+                (float) (random.nextFloat() * 2 * Math.PI), 40.0f + random.nextFloat() * 160.0f);
+        }
+        // Raise some objects, as selecting them does, so the stacking order
+        // is not the slot order
+        for (int i = 0; i < objectCount; i++) {
+            zOrder.add(items[i]);
+        }
+        for (int i = 0; i < objectCount / 4; i++) {
+            zOrder.bringToFront(items[random.nextInt(objectCount)]);
+        }
+        probeXs = new float[PROBE_COUNT];
+        probeYs = new float[PROBE_COUNT];
+        for (int i = 0; i < PROBE_COUNT; i++) {
+            probeXs[i] = random.nextFloat() * boardWidth;
+            probeYs[i] = random.nextFloat() * boardHeight;
+        }
+    }
+
+    /** Test every object from the top down, as hit-testing did before the grid */
+    @Benchmark
+    @OperationsPerInvocation(PROBE_COUNT)
+    public int hitTestLinear() {
+        int found = 0;
+        for (int p = 0; p < PROBE_COUNT; p++) {
+            int top = objectCount - 1;
+            while (top >= 0 && !store.containsPoint(top, probeXs[p], probeYs[p])) {
+                top--;
+            }
+            found += top;
+        }
+        return found;
+    }
+
+    /** Test only the grid candidates, keeping the top one */
+    @Benchmark
+    @OperationsPerInvocation(PROBE_COUNT)
+    public int hitTestGrid() {
+        int found = 0;
+        for (int p = 0; p < PROBE_COUNT; p++) {
+            candidates.clear();
+            grid.query(probeXs[p], probeYs[p], candidates);
+            int top = -1;
+            for (int i = 0, n = candidates.size(); i < n; i++) {
+                int slot = candidates.get(i).slot;
+                if (slot > top && store.containsPoint(slot, probeXs[p], probeYs[p])) {
+                    top = slot;
+                }
+            }
+            found += top;
+        }
+        return found;
+    }
+
+    /**
+     * The grid candidates ranked by their place in the stacking order, the
+     * way TurboImageView.getDraggableObjectAtPoint() finds the top object
+     */
+    @Benchmark
+    @OperationsPerInvocation(PROBE_COUNT)
+    public int hitTestGridZOrder() {
+        int found = 0;
+        for (int p = 0; p < PROBE_COUNT; p++) {
+            grid.query(probeXs[p], probeYs[p], candidates);
+            int top = -1;
+            for (int i = 0, n = candidates.size(); i < n; i++) {
+                Item candidate = candidates.get(i);
+                if (store.containsPoint(candidate.slot, probeXs[p], probeYs[p])) {
+                    int index = zOrder.indexOf(candidate);
+                    if (index > top) {
+                        top = index;
+                    }
+                }
+            }
+            candidates.clear();
+            found += top;
+        }
+        return found;
+    }
+
+    /** One drag step of one object: new transform, new bounds in the grid */
+    @Benchmark
+    public void move() {
+        Item item = items[moved];
+        moved = (moved + 1) % objectCount;
+        int slot = item.slot;
+        place(item, centerXs[slot] + 7.0f, centerYs[slot] + 5.0f, 0.3f, 120.0f);
+    }
+
+    @Benchmark
+    public int cull() {
+        float left = boardWidth / 2;
+        float top = boardHeight / 2;
+        return store.cull(left, top, left + SCREEN_WIDTH, top + SCREEN_HEIGHT);
+    }
+
+    private void place(Item item, float x, float y, float angle, float size) {
+        int slot = item.slot;
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+        float halfWidth = size / 2;
+        float halfHeight = size * 0.375f;
+        store.set(slot, x, y, halfWidth, halfHeight, cos, sin, 3.0f);
+        centerXs[slot] = x;
+        centerYs[slot] = y;
+
+        float extentX = Math.abs(cos) * halfWidth + Math.abs(sin) * halfHeight;
+        float extentY = Math.abs(sin) * halfWidth + Math.abs(cos) * halfHeight;
+        grid.update(item, x - extentX, y - extentY, x + extentX, y + extentY);
+    }
+}
@@ -0,0 +1,72 @@
+package com.munon.turboimageview;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of decoding one pinch sample into a PointInfo and reading its
+ * diameter, with the fast integer sqrt PointInfo uses and with Math.sqrt().
+ * set() alone is the baseline the other two should be compared against.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PointInfoBenchmark {
+    private final Workloads pinch = Workloads.pinch();
+    private final PointInfo point = new PointInfo();
+
+    @Benchmark
+    @OperationsPerInvocation(Workloads.SAMPLE_COUNT)
+    public float set() {
+        float sum = 0.0f;
+        for (int i = 0; i < Workloads.SAMPLE_COUNT; i++) {
+            setSample(i);
+            sum += point.getX();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Workloads.SAMPLE_COUNT)
+    public float diameterIsqrt() {
+        float sum = 0.0f;
+        for (int i = 0; i < Workloads.SAMPLE_COUNT; i++) {
+            setSample(i);
+            sum += point.getMultiTouchDiameter();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Workloads.SAMPLE_COUNT)
+    public float diameterMathSqrt() {
+        float sum = 0.0f;
+        for (int i = 0; i < Workloads.SAMPLE_COUNT; i++) {
+            setSample(i);
+            sum += (float) Math.sqrt(point.getMultiTouchDiameterSq());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Workloads.SAMPLE_COUNT)
+    public float angle() {
+        float sum = 0.0f;
+        for (int i = 0; i < Workloads.SAMPLE_COUNT; i++) {
+            setSample(i);
+            sum += point.getMultiTouchAngle();
+        }
+        return sum;
+    }
+
+    private void setSample(int i) {
+        point.set(pinch.pointerCount, pinch.xs[i], pinch.ys[i], pinch.pressures,
+            pinch.pointerIds, 2 /* ACTION_MOVE */, true, pinch.eventTimes[i]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.munon.turboimageview;
+
+import java.util.Random;
+
+/**
+ * Synthetic touch samples, recorded as they would come out of a MotionEvent
+ * at 120Hz. Seeded, so every run replays the same gesture.
+ */
+final class Workloads {
+    static final int SAMPLE_COUNT = 256;
+
+    /** Sample i has pointer p at xs[i][p], ys[i][p] */
+    final float[][] xs = new float[SAMPLE_COUNT][PointInfo.MAX_TOUCH_POINTS];
+    final float[][] ys = new float[SAMPLE_COUNT][PointInfo.MAX_TOUCH_POINTS];
+    final float[] pressures = new float[PointInfo.MAX_TOUCH_POINTS];
+    final int[] pointerIds = new int[PointInfo.MAX_TOUCH_POINTS];
+    final long[] eventTimes = new long[SAMPLE_COUNT];
+    final int pointerCount;
+
+    private Workloads(int pointerCount) {
+        this.pointerCount = pointerCount;
+        for (int p = 0; p < pointerIds.length; p++) {
+            pointerIds[p] = p;
+            pressures[p] = 1.0f;
+        }
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            eventTimes[i] = i * 8L;
+        }
+    }
+
+    /** One finger wandering across a 1080x1920 screen */
+    static Workloads drag() {
+        Workloads w = new Workloads(1);
+        Random random = new Random(1);
+        float x = 540.0f;
+        float y = 960.0f;
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            x = clamp(x + (random.nextFloat() - 0.5f) * 40.0f, 0.0f, 1080.0f);
+            y = clamp(y + (random.nextFloat() - 0.5f) * 40.0f, 0.0f, 1920.0f);
+            w.xs[i][0] = x;
+            w.ys[i][0] = y;
+        }
+        return w;
+    }
+
+    /** Two fingers spreading apart and turning around a drifting midpoint */
+    static Workloads pinch() {
+        Workloads w = new Workloads(2);
+        Random random = new Random(2);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            float t = i / (float) SAMPLE_COUNT;
+            float midX = 540.0f + 100.0f * t + random.nextFloat();
+            float midY = 960.0f - 80.0f * t + random.nextFloat();
+            float radius = 60.0f + 400.0f * t;
+            double angle = Math.PI * t;
+            float dx = (float) Math.cos(angle) * radius;
+            float dy = (float) Math.sin(angle) * radius;
+            w.xs[i][0] = midX - dx;
+            w.ys[i][0] = midY - dy;
+            w.xs[i][1] = midX + dx;
+            w.ys[i][1] = midY + dy;
+        }
+        return w;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,146 @@
+package com.munon.turboimageview;
+
+import android.graphics.Bitmap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process wide cache of decoded bitmaps, shared by every ImageObject. Entries
+ * are reference counted: an entry in use by an object is never evicted, and
+ * unused entries are kept around for reuse until the cache grows past its
+ * byte budget, least recently used first.
+ */
+public class BitmapCache {
+    private static final int DEFAULT_MEMORY_FRACTION = 8;
+
+    private static BitmapCache instance;
+
+    /** Bitmap doesn't override equals(), so this maps instances to ids */
+    private static final WeakHashMap<Bitmap, Long> bitmapIds = new WeakHashMap<>();
+    private static long nextBitmapId;
+
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes;
+
+    private static class Entry {
+        final Bitmap bitmap;
+        final int bytes;
+        int refCount;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.bytes = bitmap.getByteCount();
+        }
+    }
+
+    public static synchronized BitmapCache getInstance() {
+        if (instance == null) {
+            instance = new BitmapCache(Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION);
+        }
+        return instance;
+    }
+
+    public BitmapCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a cached bitmap and take a reference on it.
+     *
+     * @return the bitmap, or null if it is not cached
+     */
+    public synchronized Bitmap acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.refCount++;
+        return entry.bitmap;
+    }
+
+    /**
+     * Add a bitmap and take a reference on it. If another bitmap was cached
+     * under the same key in the meantime, that one is referenced and returned
+     * instead, so callers should always use the returned bitmap.
+     */
+    public synchronized Bitmap put(String key, Bitmap bitmap) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(bitmap);
+            entries.put(key, entry);
+            bytes += entry.bytes;
+        }
+        entry.refCount++;
+        trimToSize();
+        return entry.bitmap;
+    }
+
+    /** Drop a reference taken by acquire() or put() */
+    public synchronized void release(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.refCount > 0) {
+            entry.refCount--;
+            if (entry.refCount == 0) {
+                trimToSize();
+            }
+        }
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Bytes used by every cached bitmap, referenced or not */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** Drop every unreferenced entry */
+    public synchronized void evictAll() {
+        long savedMaxBytes = maxBytes;
+        maxBytes = 0;
+        trimToSize();
+        maxBytes = savedMaxBytes;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount == 0) {
+                iterator.remove();
+                bytes -= entry.bytes;
+            }
+        }
+    }
+
+    /** Cache key for an image source decoded with the given sample size */
+    public static String sourceKey(ImageSource source, int sampleSize) {
+        return source + "@" + sampleSize;
+    }
+
+    /**
+     * Cache key for a raw bitmap instance, so that objects showing the same
+     * bitmap share one entry. The pixels are not looked at, copies of an
+     * image need a key of the caller's own to be shared.
+     */
+    public static String identityKey(Bitmap bitmap) {
+        synchronized (bitmapIds) {
+            Long id = bitmapIds.get(bitmap);
+            if (id == null) {
+                id = nextBitmapId++;
+                bitmapIds.put(bitmap, id);
+            }
+            return "bitmap:" + id;
+        }
+    }
+}
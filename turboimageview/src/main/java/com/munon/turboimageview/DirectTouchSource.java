@@ -0,0 +1,49 @@
+package com.munon.turboimageview;
+
+import android.view.MotionEvent;
+
+/**
+ * Default TouchSource, reads pointers through the plain MotionEvent API.
+ * Nothing is boxed, so decoding a whole gesture does not allocate.
+ */
+public class DirectTouchSource implements TouchSource {
+
+    @Override
+    public int getAction(MotionEvent event) {
+        return event.getAction();
+    }
+
+    @Override
+    public int getPointerCount(MotionEvent event) {
+        return event.getPointerCount();
+    }
+
+    @Override
+    public int getHistorySize(MotionEvent event) {
+        return event.getHistorySize();
+    }
+
+    @Override
+    public void readPointers(MotionEvent event, int histIdx, int numPointers, float[] xs,
+                             float[] ys, float[] pressures, int[] pointerIds) {
+        boolean processingHist = histIdx != CURRENT_SAMPLE;
+        for (int ptrIdx = 0; ptrIdx < numPointers; ptrIdx++) {
+            pointerIds[ptrIdx] = event.getPointerId(ptrIdx);
+            if (processingHist) {
+                xs[ptrIdx] = event.getHistoricalX(ptrIdx, histIdx);
+                ys[ptrIdx] = event.getHistoricalY(ptrIdx, histIdx);
+                pressures[ptrIdx] = event.getHistoricalPressure(ptrIdx, histIdx);
+            } else {
+                xs[ptrIdx] = event.getX(ptrIdx);
+                ys[ptrIdx] = event.getY(ptrIdx);
+                pressures[ptrIdx] = event.getPressure(ptrIdx);
+            }
+        }
+    }
+
+    @Override
+    public long getEventTime(MotionEvent event, int histIdx) {
+        return histIdx != CURRENT_SAMPLE ? event.getHistoricalEventTime(histIdx)
+            : event.getEventTime();
+    }
+}
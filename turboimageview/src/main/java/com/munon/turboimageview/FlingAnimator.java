@@ -0,0 +1,189 @@
+package com.munon.turboimageview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Keeps a released object moving, scaling and rotating with the velocity it
+ * was let go with, slowing down with friction, one step per display frame.
+ * The center stays within the bounds it is given. Nothing is allocated per
+ * frame. Needs Choreographer, so only created on Jelly Bean and up.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class FlingAnimator implements Choreographer.FrameCallback, GestureEngine.Flinger {
+    /** Below these speeds a component stops (pixels, log scale and radians per second) */
+    private static final float MIN_VELOCITY = 50.0f;
+    private static final float MIN_SCALE_VELOCITY = 0.1f;
+    private static final float MIN_ANGLE_VELOCITY = 0.2f;
+
+    /** Longest step, so a dropped frame doesn't make the object jump */
+    private static final float MAX_FRAME_SECONDS = 0.05f;
+
+    /** Receives each new pose; returns false to stop the fling */
+    interface PoseListener {
+        boolean onPose(PositionAndScale pose);
+    }
+
+    private final PoseListener listener;
+    private final PositionAndScale pose = new PositionAndScale();
+    private Choreographer choreographer;
+
+    private float x;
+    private float y;
+    private float scale;
+    private float scaleX;
+    private float scaleY;
+    private float angle;
+    private float velocityX;
+    private float velocityY;
+    private float velocityScale;
+    private float velocityAngle;
+
+    private float friction;
+    private float boundsLeft;
+    private float boundsTop;
+    private float boundsRight;
+    private float boundsBottom;
+
+    /** The bounds, grown to include the start position */
+    private float minX;
+    private float minY;
+    private float maxX;
+    private float maxY;
+
+    private long lastFrameNanos;
+    private boolean running;
+
+    FlingAnimator(PoseListener listener, float friction) {
+        this.listener = listener;
+        this.friction = friction;
+    }
+
+    /** How fast the fling slows down, velocities decay as e^(-friction * seconds) */
+    void setFriction(float friction) {
+        this.friction = friction;
+    }
+
+    /** Where the center of the flung object may go */
+    void setBounds(float left, float top, float right, float bottom) {
+        boundsLeft = left;
+        boundsTop = top;
+        boundsRight = right;
+        boundsBottom = bottom;
+    }
+
+    /**
+     * Start flinging from the given pose with the x, y, log scale and angle
+     * velocities (per second) in velocity.
+     *
+     * @return false if the velocity is too low to fling
+     */
+    @Override
+    public boolean start(PositionAndScale from, float[] velocity) {
+        cancel();
+        velocityX = Math.abs(velocity[0]) < MIN_VELOCITY ? 0.0f : velocity[0];
+        velocityY = Math.abs(velocity[1]) < MIN_VELOCITY ? 0.0f : velocity[1];
+        velocityScale = !from.isUpdateScale() || Math.abs(velocity[2]) < MIN_SCALE_VELOCITY
+            ? 0.0f : velocity[2];
+        velocityAngle = !from.isUpdateAngle() || Math.abs(velocity[3]) < MIN_ANGLE_VELOCITY
+            ? 0.0f : velocity[3];
+        if (isStopped()) {
+            return false;
+        }
+        pose.set(from.getXOff(), from.getYOff(), from.isUpdateScale(), from.getScale(),
+            from.isUpdateScaleXY(), from.getScaleX(), from.getScaleY(),
+            from.isUpdateAngle(), from.getAngle());
+        x = from.getXOff();
+        y = from.getYOff();
+        scale = from.getScale();
+        scaleX = from.getScaleX();
+        scaleY = from.getScaleY();
+        angle = from.getAngle();
+        // An object let go outside the bounds is not pulled in, only kept from going further
+        minX = Math.min(boundsLeft, x);
+        minY = Math.min(boundsTop, y);
+        maxX = Math.max(boundsRight, x);
+        maxY = Math.max(boundsBottom, y);
+        lastFrameNanos = 0;
+        running = true;
+        scheduleFrame();
+        return true;
+    }
+
+    /** Stop right away, leaving the object where it is */
+    @Override
+    public void cancel() {
+        if (running) {
+            running = false;
+            unscheduleFrame();
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (lastFrameNanos == 0) {
+            // The first frame only sets the clock
+            lastFrameNanos = frameTimeNanos;
+            scheduleFrame();
+            return;
+        }
+        float dt = Math.min((frameTimeNanos - lastFrameNanos) / 1e9f, MAX_FRAME_SECONDS);
+        lastFrameNanos = frameTimeNanos;
+
+        x += velocityX * dt;
+        y += velocityY * dt;
+        if (x < minX || x > maxX) {
+            x = Math.max(minX, Math.min(maxX, x));
+            velocityX = 0.0f;
+        }
+        if (y < minY || y > maxY) {
+            y = Math.max(minY, Math.min(maxY, y));
+            velocityY = 0.0f;
+        }
+        float scaleFactor = (float) Math.exp(velocityScale * dt);
+        scale *= scaleFactor;
+        scaleX *= scaleFactor;
+        scaleY *= scaleFactor;
+        angle += velocityAngle * dt;
+
+        float decay = (float) Math.exp(-friction * dt);
+        velocityX = Math.abs(velocityX * decay) < MIN_VELOCITY ? 0.0f : velocityX * decay;
+        velocityY = Math.abs(velocityY * decay) < MIN_VELOCITY ? 0.0f : velocityY * decay;
+        velocityScale = Math.abs(velocityScale * decay) < MIN_SCALE_VELOCITY
+            ? 0.0f : velocityScale * decay;
+        velocityAngle = Math.abs(velocityAngle * decay) < MIN_ANGLE_VELOCITY
+            ? 0.0f : velocityAngle * decay;
+
+        pose.set(x, y, scale, scaleX, scaleY, angle);
+        if (!listener.onPose(pose) || isStopped()) {
+            running = false;
+        } else {
+            scheduleFrame();
+        }
+    }
+
+    /** Have doFrame() called at the next display frame. Tests drive the frames by hand. */
+    void scheduleFrame() {
+        if (choreographer == null) {
+            choreographer = Choreographer.getInstance();
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    void unscheduleFrame() {
+        choreographer.removeFrameCallback(this);
+    }
+
+    private boolean isStopped() {
+        return velocityX == 0.0f && velocityY == 0.0f && velocityScale == 0.0f
+            && velocityAngle == 0.0f;
+    }
+}
@@ -0,0 +1,1137 @@
+package com.munon.turboimageview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The gesture logic of MultiTouchController, free of Android: it is fed
+ * plain pointer arrays and event times, tracks drags, pinches and camera
+ * moves through the same mode state machine, and moves objects through a
+ * MultiTouchObjectCanvas. Nothing is allocated per sample, so it can also
+ * run on a server JVM, in tests, benchmarks or other renderers.
+ *
+ * Each touch event is fed as its history samples followed by its current
+ * sample, through onTouchSample(), then closed with endEvent().
+ */
+public class GestureEngine<T> {
+    // Same values as the MotionEvent constants
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+    public static final int ACTION_POINTER_UP = 6;
+    private static final int ACTION_MASK = 0xff;
+    private static final int ACTION_POINTER_INDEX_MASK = 0xff00;
+    private static final int ACTION_POINTER_INDEX_SHIFT = 8;
+
+    private static final long EVENT_SETTLE_TIME_INTERVAL = 20;
+    private static final float MAX_MULTITOUCH_POS_JUMP_SIZE = 30.0f;
+    private static final float MAX_MULTITOUCH_DIM_JUMP_SIZE = 40.0f;
+    private static final float MIN_MULTITOUCH_SEPARATION = 30.0f;
+    private static final float THRESHOLD = 3.0f;
+    private static final long FLING_VELOCITY_WINDOW_MILLIS = 80;
+
+    private MultiTouchObjectCanvas<T> objectCanvas;
+
+    private PointInfo mCurrentTouchPoint;
+    private PointInfo mPrevTouchPoint;
+
+    /** Fields extracted from mCurrentTouchPoint */
+    private float mCurrentTouchPointX;
+    private float mCurrentTouchPointY;
+    private float mCurrentTouchPointDiam;
+    private float mCurrentTouchPointWidth;
+    private float mCurrentTouchPointHeight;
+    private float mCurrentTouchPointAng;
+
+    /**
+     * Extract fields from mCurrentTouchPoint, respecting the update* fields of mCurrentTouchPoint.
+     * This just avoids code duplication. I hate that Java doesn't support
+     * higher-order functions, tuples or multiple return values from functions.
+     */
+    private void extractCurrentTouchPointInfo() {
+        // Get new drag/pinch params. Only read multitouch fields that are needed,
+        // to avoid unnecessary computation (diameter and angle are expensive operations).
+        mCurrentTouchPointX = mCurrentTouchPoint.getX();
+        mCurrentTouchPointY = mCurrentTouchPoint.getY();
+        mCurrentTouchPointDiam = Math.max(MIN_MULTITOUCH_SEPARATION * .71f,
+            !mCurrentTouchPointPosAndScale.isUpdateScale() ? 0.0f : mCurrentTouchPoint.getMultiTouchDiameter());
+        mCurrentTouchPointWidth = Math.max(MIN_MULTITOUCH_SEPARATION,
+            !mCurrentTouchPointPosAndScale.isUpdateScaleXY() ? 0.0f : mCurrentTouchPoint.getMultiTouchWidth());
+        mCurrentTouchPointHeight = Math.max(MIN_MULTITOUCH_SEPARATION,
+            !mCurrentTouchPointPosAndScale.isUpdateScaleXY() ? 0.0f : mCurrentTouchPoint.getMultiTouchHeight());
+        mCurrentTouchPointAng = !mCurrentTouchPointPosAndScale.isUpdateAngle() ? 0.0f : mCurrentTouchPoint.getMultiTouchAngle();
+    }
+
+    /**
+     * Whether to handle single-touch events/drags before multi-touch is
+     * initiated or not; if not, they are handled by subclasses
+     */
+    private boolean handleSingleTouchEvents;
+
+    /** The object being dragged/stretched */
+    private T selectedObject = null;
+
+    private final PositionAndScale mCurrentTouchPointPosAndScale = new PositionAndScale();
+
+    /**
+     * Drag/pinch start time and time to ignore spurious events until
+     * (to smooth over event noise)
+     */
+    private long mSettleStartTime;
+    private long mSettleEndTime;
+
+    /** Conversion from object coords to screen coords */
+    private float startPosX;
+    private float startPosY;
+
+    /** Conversion between scale and width, and object angle and start pinch angle */
+    private float startScaleOverPinchDiam;
+    private float startAngleMinusPinchAngle;
+
+    /** Conversion between X scale and width, and Y scale and height */
+    private float startScaleXOverPinchWidth;
+    private float startScaleYOverPinchHeight;
+
+    /** Whether the current object has moved beyond THRESHOLD */
+    private boolean mDragOccurred = false;
+
+    static final int MODE_NOTHING = 0;
+    static final int MODE_DRAG = 1;
+    static final int MODE_PINCH = 2;
+    static final int MODE_ST_GRAB = 3;
+    static final int MODE_CAMERA = 4;
+
+    /** Current drag mode */
+    private int mMode = MODE_NOTHING;
+
+    public GestureEngine(MultiTouchObjectCanvas<T> objectCanvas,
+                         boolean handleSingleTouchEvents) {
+        this.mCurrentTouchPoint = new PointInfo();
+        this.mPrevTouchPoint = new PointInfo();
+        this.handleSingleTouchEvents = handleSingleTouchEvents;
+        this.objectCanvas = objectCanvas;
+    }
+
+    /**
+     * Whether to handle single-touch events/drags before multi-touch is
+     * initiated or not; if not, wantsEvent() turns them down
+     */
+    public void setHandleSingleTouchEvents(boolean handleSingleTouchEvents) {
+        this.handleSingleTouchEvents = handleSingleTouchEvents;
+    }
+
+    public boolean getHandleSingleTouchEvents() {
+        return handleSingleTouchEvents;
+    }
+
+    public boolean dragOccurred() {
+        return mDragOccurred;
+    }
+
+    /** Gets every decoded sample, if set */
+    private TouchRecorder touchRecorder;
+
+    /** Record every decoded touch sample into the recorder, or stop recording if null */
+    public void setTouchRecorder(TouchRecorder touchRecorder) {
+        this.touchRecorder = touchRecorder;
+    }
+
+    /** Panned and zoomed by two-finger gestures on empty space, if set */
+    private MultiTouchCameraCanvas cameraCanvas;
+
+    /**
+     * Set the canvas whose camera two-finger drags and pinches that don't
+     * start on an object move, or null to ignore those gestures. Default: null
+     */
+    public void setCameraCanvas(MultiTouchCameraCanvas cameraCanvas) {
+        if (cameraCanvas == null && mMode == MODE_CAMERA) {
+            if (predictor != null) {
+                predictor.cancel();
+            }
+            transformPending = false;
+            setMode(MODE_NOTHING);
+        }
+        this.cameraCanvas = cameraCanvas;
+    }
+
+    /**
+     * Whether the history samples of an event only feed the settle and jump
+     * filters, with the transform applied once for the whole event
+     */
+    private boolean coalesceHistory;
+
+    /** Set while decoding history samples that must not apply the transform */
+    private boolean deferTransform;
+
+    /** A transform computed from a history sample, not applied yet */
+    private boolean transformPending;
+
+    /**
+     * Whether to apply the drag transform once per event instead of once per
+     * historical sample. High rate touch panels batch several samples into
+     * each event; coalescing still runs every sample through the settle and
+     * jump filters, but moves the object (and so invalidates) only once.
+     * Default: false
+     */
+    public void setCoalesceHistory(boolean coalesceHistory) {
+        this.coalesceHistory = coalesceHistory;
+    }
+
+    public boolean isCoalesceHistory() {
+        return coalesceHistory;
+    }
+
+    /**
+     * Shows the transforms of a drag at its own pace, e.g. once per display
+     * frame at a pose predicted from the samples, by calling applyPose()
+     */
+    public interface Predictor {
+        /** A new actual pose of the dragged object */
+        void addSample(long eventTime, PositionAndScale pose);
+
+        /** Apply the latest actual pose right away and forget the samples */
+        void finish();
+
+        /** Forget the samples without applying anything */
+        void cancel();
+    }
+
+    /**
+     * Keeps a released object moving, by calling applyFlingPose() until that
+     * returns false or the fling is canceled
+     */
+    public interface Flinger {
+        /**
+         * @param velocity Per second x, y, log-scale and angle velocities.
+         * @return false if the object is too slow to fling.
+         */
+        boolean start(PositionAndScale from, float[] velocity);
+
+        void cancel();
+    }
+
+    /** Shows the drag at predicted poses, if set */
+    private Predictor predictor;
+
+    /**
+     * Set the predictor the poses of a drag go through instead of straight
+     * to the canvas, or null to apply every pose as it is decoded.
+     * Default: null
+     */
+    public void setPredictor(Predictor predictor) {
+        if (this.predictor != null) {
+            this.predictor.finish();
+        }
+        this.predictor = predictor;
+    }
+
+    public Predictor getPredictor() {
+        return predictor;
+    }
+
+    /** Move the dragged object or the camera to a pose from the Predictor */
+    public void applyPose(PositionAndScale pose) {
+        applyTransform(pose);
+    }
+
+    /** Recent poses of the dragged object, to find its velocity when released */
+    private PoseHistory releaseHistory;
+    private final float[] releaseVelocity = new float[4];
+    private final PositionAndScale releasePosAndScale = new PositionAndScale();
+
+    /** Keeps a released object moving, if set */
+    private Flinger flinger;
+    private T flingObject;
+
+    /**
+     * Set what keeps an object that is let go while moving, scaling or
+     * rotating going, or null to stop objects when released. Any touch stops
+     * a fling. Default: null
+     */
+    public void setFlinger(Flinger flinger) {
+        cancelFling();
+        this.flinger = flinger;
+        releaseHistory = flinger != null ? new PoseHistory() : null;
+    }
+
+    public Flinger getFlinger() {
+        return flinger;
+    }
+
+    /**
+     * Move the flung object to a pose from the Flinger
+     *
+     * @return false if the object can't be moved anymore, e.g. it was removed
+     */
+    public boolean applyFlingPose(PositionAndScale pose) {
+        return flingObject != null
+            && objectCanvas.setPositionAndScale(flingObject, pose, mCurrentTouchPoint);
+    }
+
+    /** Stop a fling in progress, leaving the object where it is */
+    public void cancelFling() {
+        if (flinger != null) {
+            flinger.cancel();
+        }
+        flingObject = null;
+    }
+
+    /** Fling the object being released with the velocity it had */
+    private void startFling() {
+        if (flinger == null || selectedObject == null) {
+            return;
+        }
+        releaseHistory.computeVelocity(mCurrentTouchPoint.getEventTime(),
+            FLING_VELOCITY_WINDOW_MILLIS, releaseVelocity);
+        releaseHistory.clear();
+        objectCanvas.getPositionAndScale(selectedObject, releasePosAndScale);
+        flingObject = selectedObject;
+        if (!flinger.start(releasePosAndScale, releaseVelocity)) {
+            flingObject = null;
+        }
+    }
+
+    /**
+     * Whether a new event with this many pointers is handled at all. Initial
+     * single touch events are passed on when not handling them.
+     */
+    public boolean wantsEvent(int pointerCount) {
+        return mMode != MODE_NOTHING || handleSingleTouchEvents || pointerCount != 1
+            || multiGrab;
+    }
+
+    /**
+     * Feed one sample of a touch event. Only the first pointerCount entries
+     * of the arrays are read, and they are not kept.
+     *
+     * @param action The event action, ACTION_MOVE for history samples.
+     * @param down Whether any pointer is still down after this sample.
+     * @param historical Whether this is one of the batched history samples,
+     * rather than the current sample of the event.
+     */
+    public void onTouchSample(int pointerCount, float[] x, float[] y, float[] pressure,
+                              int[] pointerIds, int action, boolean down, long eventTime,
+                              boolean historical) {
+        if (flingObject != null) {
+            // Catch the flung object
+            cancelFling();
+        }
+        pointerCount = Math.min(pointerCount, PointInfo.MAX_TOUCH_POINTS);
+        if (touchRecorder != null) {
+            touchRecorder.record(pointerCount, x, y, pressure, pointerIds, action, down,
+                eventTime, historical);
+        }
+        deferTransform = coalesceHistory && historical;
+        if (multiGrab) {
+            if (!historical && action != ACTION_MOVE) {
+                flushPendingGrabs();
+            }
+            decodeMultiGrab(pointerCount, x, y, pressure, pointerIds, action, down, eventTime);
+            return;
+        }
+        if (!historical && action != ACTION_MOVE) {
+            // The current sample may end the drag, move to the last position first
+            settleTransform();
+        }
+        decodeTouchEvent(pointerCount, x, y, pressure, pointerIds, action, down, eventTime);
+    }
+
+    /** Close the event whose samples were fed to onTouchSample() */
+    public void endEvent() {
+        // The current sample did not move the object, e.g. it was held back by
+        // the settle filter, so apply the last transform from the history
+        flushPendingTransform();
+        flushPendingGrabs();
+    }
+
+    private void decodeTouchEvent(int pointerCount, float[] x, float[] y,
+                                  float[] pressure, int[] pointerIds, int action, boolean down,
+                                  long eventTime) {
+        // Swap curr/prev points
+        PointInfo tmp = mPrevTouchPoint;
+        mPrevTouchPoint = mCurrentTouchPoint;
+        mCurrentTouchPoint = tmp;
+        // Overwrite old prev point
+        mCurrentTouchPoint.set(pointerCount, x, y, pressure, pointerIds, action, down, eventTime);
+        multiTouchController();
+    }
+
+    // ---------------------------------------------------------------------------
+    // Multi-grab
+
+    /** Whether every pointer, or pointer pair, moves its own object */
+    private boolean multiGrab;
+
+    /** One object held by one or two pointers. All are allocated up front. */
+    private Grab[] grabs;
+    /** The object each grab holds, by Grab.slot, null if the grab is free */
+    private ArrayList<T> grabbedObjects;
+    private int grabCount;
+
+    /** Told about every grab that ends, if set */
+    private MultiTouchGrabCanvas<T> grabCanvas;
+
+    /** Pointers that went down on nothing, they don't grab anything until lifted */
+    private int[] ignoredPointerIds = new int[PointInfo.MAX_TOUCH_POINTS];
+    private int[] keptPointerIds = new int[PointInfo.MAX_TOUCH_POINTS];
+    private int ignoredCount;
+
+    /** Hit-tests a new pointer on its own */
+    private final PointInfo probePoint = new PointInfo();
+    private final float[] probeX = new float[1];
+    private final float[] probeY = new float[1];
+    private final float[] probePressure = new float[1];
+    private final int[] probePointerId = new int[1];
+
+    /**
+     * Whether each pointer grabs the object under it and moves it on its
+     * own, instead of the second pointer turning the drag into a pinch. A
+     * second pointer that lands on an object already held by one pointer
+     * pinches that object. Several people can so move different objects at
+     * the same time. The camera, the grab area, prediction and flings are
+     * not used while on. Each grab selects its object through
+     * selectObject(), see setGrabCanvas() for how they are let go.
+     * Default: false
+     */
+    public void setMultiGrabEnabled(boolean enabled) {
+        if (enabled == multiGrab) {
+            return;
+        }
+        if (enabled) {
+            // End the single gesture in progress
+            settleTransform();
+            if (selectedObject != null) {
+                objectCanvas.selectObject((selectedObject = null), mCurrentTouchPoint);
+            }
+            setMode(MODE_NOTHING);
+            mDragOccurred = false;
+            if (grabs == null) {
+                grabs = new Grab[PointInfo.MAX_TOUCH_POINTS];
+                for (int i = 0; i < grabs.length; i++) {
+                    grabs[i] = new Grab(i);
+                }
+                grabbedObjects = new ArrayList<>(
+                    Collections.<T>nCopies(PointInfo.MAX_TOUCH_POINTS, null));
+            }
+        } else {
+            releaseAllGrabs();
+        }
+        multiGrab = enabled;
+    }
+
+    public boolean isMultiGrabEnabled() {
+        return multiGrab;
+    }
+
+    /**
+     * Set the canvas to tell which object each ending grab let go, so that
+     * every selectObject() of a grab is paired with a releaseObject(). If
+     * null, selectObject(null) is called once, when the last object is let
+     * go. Default: null
+     */
+    public void setGrabCanvas(MultiTouchGrabCanvas<T> grabCanvas) {
+        this.grabCanvas = grabCanvas;
+    }
+
+    /** The object the grab holds, or null */
+    private T objectOf(Grab grab) {
+        return grabbedObjects.get(grab.slot);
+    }
+
+    /** The number of objects being held */
+    public int getGrabCount() {
+        return grabCount;
+    }
+
+    private void decodeMultiGrab(int pointerCount, float[] x, float[] y, float[] pressure,
+                                 int[] pointerIds, int action, boolean down, long eventTime) {
+        int maskedAction = action & ACTION_MASK;
+        boolean allUp = maskedAction == ACTION_UP || maskedAction == ACTION_CANCEL
+            || (!down && maskedAction != ACTION_POINTER_UP);
+        int liftedIndex = maskedAction == ACTION_POINTER_UP
+            ? (action & ACTION_POINTER_INDEX_MASK) >> ACTION_POINTER_INDEX_SHIFT : -1;
+        boolean hadGrabs = grabCount > 0;
+
+        for (Grab grab : grabs) {
+            grab.seen = 0;
+        }
+        // Pointers that are still down: move their grab, or grab something new
+        int ignoredKept = 0;
+        for (int i = 0; i < pointerCount && !allUp; i++) {
+            if (i == liftedIndex) {
+                continue;
+            }
+            int id = pointerIds[i];
+            Grab grab = grabOf(id);
+            if (grab != null) {
+                grab.setPointer(grab.indexOf(id), x[i], y[i], pressure[i]);
+            } else if (isIgnored(id) || !grabAt(id, x[i], y[i], pressure[i], eventTime)) {
+                // Ignored until lifted
+                keptPointerIds[ignoredKept++] = id;
+            }
+        }
+        int[] tmp = ignoredPointerIds;
+        ignoredPointerIds = keptPointerIds;
+        keptPointerIds = tmp;
+        ignoredCount = ignoredKept;
+
+        // Pointers that are gone let go, the others move their object
+        for (Grab grab : grabs) {
+            if (objectOf(grab) == null) {
+                continue;
+            }
+            for (int p = grab.pointerCount - 1; p >= 0; p--) {
+                if ((grab.seen & (1 << p)) == 0) {
+                    grab.removePointer(p);
+                }
+            }
+            if (grab.pointerCount == 0) {
+                release(grab);
+            } else if (grab.changed) {
+                grab.restart(this, eventTime);
+            } else {
+                grab.update(this, eventTime);
+            }
+        }
+
+        if (allUp && !hadGrabs) {
+            objectCanvas.canvasTouched();
+        }
+    }
+
+    /** Grab whatever is under a new pointer, return false if there is nothing to grab */
+    private boolean grabAt(int id, float x, float y, float pressure, long eventTime) {
+        probeX[0] = x;
+        probeY[0] = y;
+        probePressure[0] = pressure;
+        probePointerId[0] = id;
+        probePoint.set(1, probeX, probeY, probePressure, probePointerId, 0, true, eventTime);
+        T object = objectCanvas.getDraggableObjectAtPoint(probePoint);
+        if (object == null) {
+            return false;
+        }
+        Grab free = null;
+        for (Grab grab : grabs) {
+            T held = objectOf(grab);
+            if (held == object) {
+                // A second finger on a held object pinches it, a third does nothing
+                if (grab.pointerCount == 1) {
+                    grab.addPointer(id, x, y, pressure);
+                    return true;
+                }
+                return false;
+            }
+            if (free == null && held == null) {
+                free = grab;
+            }
+        }
+        if (free == null) {
+            return false;
+        }
+        if (grabCount == 0) {
+            objectCanvas.deselectAll();
+        }
+        grabCount++;
+        grabbedObjects.set(free.slot, object);
+        free.start(id, x, y, pressure, eventTime);
+        objectCanvas.selectObject(object, free.current);
+        return true;
+    }
+
+    private Grab grabOf(int pointerId) {
+        if (grabCount == 0) {
+            return null;
+        }
+        for (Grab grab : grabs) {
+            if (objectOf(grab) != null && grab.indexOf(pointerId) >= 0) {
+                return grab;
+            }
+        }
+        return null;
+    }
+
+    private boolean isIgnored(int pointerId) {
+        for (int i = 0; i < ignoredCount; i++) {
+            if (ignoredPointerIds[i] == pointerId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(Grab grab) {
+        grab.flushPending(this);
+        PointInfo lastPoint = grab.current;
+        T object = grabbedObjects.set(grab.slot, null);
+        grab.pointerCount = 0;
+        grabCount--;
+        if (grabCanvas != null) {
+            grabCanvas.releaseObject(object, lastPoint);
+        } else if (grabCount == 0) {
+            // The last object was let go
+            objectCanvas.selectObject(null, lastPoint);
+        }
+    }
+
+    private void releaseAllGrabs() {
+        if (grabs == null) {
+            return;
+        }
+        for (Grab grab : grabs) {
+            if (objectOf(grab) != null) {
+                release(grab);
+            }
+        }
+        ignoredCount = 0;
+    }
+
+    private void flushPendingGrabs() {
+        if (grabCount == 0) {
+            return;
+        }
+        for (Grab grab : grabs) {
+            grab.flushPending(this);
+        }
+    }
+
+    /**
+     * The drag or pinch of one object, the same way the single gesture moves
+     * the selected object, with its own anchor, settle time and pointers. The
+     * object is kept by the engine, which is passed to what moves it.
+     */
+    private static final class Grab {
+        /** Index of the grab's object in grabbedObjects */
+        final int slot;
+        int pointerCount;
+        final int[] pointerIds = new int[2];
+        final float[] xs = new float[2];
+        final float[] ys = new float[2];
+        final float[] pressures = new float[2];
+        /** Bit per pointer that is in the current sample */
+        int seen;
+        /** A pointer was added or removed in the current sample */
+        boolean changed;
+        boolean pending;
+        boolean dragOccurred;
+        long settleEndTime;
+
+        PointInfo current = new PointInfo();
+        PointInfo previous = new PointInfo();
+        final PositionAndScale posAndScale = new PositionAndScale();
+
+        float touchX;
+        float touchY;
+        float touchDiam;
+        float touchWidth;
+        float touchHeight;
+        float touchAngle;
+
+        float startPosX;
+        float startPosY;
+        float startScaleOverPinchDiam;
+        float startScaleXOverPinchWidth;
+        float startScaleYOverPinchHeight;
+        float startAngleMinusPinchAngle;
+
+        Grab(int slot) {
+            this.slot = slot;
+        }
+
+        void start(int id, float x, float y, float pressure, long eventTime) {
+            pointerCount = 0;
+            dragOccurred = false;
+            pending = false;
+            addPointer(id, x, y, pressure);
+            readPoint(eventTime);
+            // No settling for the first finger, it is not noisy
+            settleEndTime = eventTime;
+        }
+
+        int indexOf(int pointerId) {
+            for (int p = 0; p < pointerCount; p++) {
+                if (pointerIds[p] == pointerId) {
+                    return p;
+                }
+            }
+            return -1;
+        }
+
+        void setPointer(int p, float x, float y, float pressure) {
+            xs[p] = x;
+            ys[p] = y;
+            pressures[p] = pressure;
+            seen |= 1 << p;
+        }
+
+        void addPointer(int id, float x, float y, float pressure) {
+            int p = pointerCount++;
+            pointerIds[p] = id;
+            setPointer(p, x, y, pressure);
+            changed = true;
+        }
+
+        void removePointer(int p) {
+            pointerCount--;
+            if (p < pointerCount) {
+                pointerIds[p] = pointerIds[pointerCount];
+                xs[p] = xs[pointerCount];
+                ys[p] = ys[pointerCount];
+                pressures[p] = pressures[pointerCount];
+            }
+            changed = true;
+        }
+
+        /**
+         * Pinch became drag or the other way round: start over from the
+         * current pointers and let events settle
+         */
+        <T> void restart(GestureEngine<T> engine, long eventTime) {
+            changed = false;
+            flushPending(engine);
+            readPoint(eventTime);
+            anchor(engine);
+            if (settleEndTime != eventTime) {
+                settleEndTime = eventTime + EVENT_SETTLE_TIME_INTERVAL;
+            }
+        }
+
+        void readPoint(long eventTime) {
+            PointInfo tmp = previous;
+            previous = current;
+            current = tmp;
+            current.set(pointerCount, xs, ys, pressures, pointerIds, ACTION_MOVE, true,
+                eventTime);
+        }
+
+        <T> void update(GestureEngine<T> engine, long eventTime) {
+            readPoint(eventTime);
+            if (current.isMultiTouch() && previous.isMultiTouch()
+                && (Math.abs(current.getX() - previous.getX()) > MAX_MULTITOUCH_POS_JUMP_SIZE
+                || Math.abs(current.getY() - previous.getY()) > MAX_MULTITOUCH_POS_JUMP_SIZE
+                || Math.abs(current.getMultiTouchWidth() - previous.getMultiTouchWidth()) * .5f
+                > MAX_MULTITOUCH_DIM_JUMP_SIZE
+                || Math.abs(current.getMultiTouchHeight() - previous.getMultiTouchHeight()) * .5f
+                > MAX_MULTITOUCH_DIM_JUMP_SIZE)) {
+                // Jumped too far, probably event noise, reset and ignore events for a bit
+                flushPending(engine);
+                anchor(engine);
+                settleEndTime = eventTime + EVENT_SETTLE_TIME_INTERVAL;
+            } else if (eventTime < settleEndTime) {
+                flushPending(engine);
+                anchor(engine);
+            } else {
+                perform(engine);
+            }
+        }
+
+        <T> void anchor(GestureEngine<T> engine) {
+            engine.objectCanvas.getPositionAndScale(engine.objectOf(this), posAndScale);
+            float currScaleInv = 1.0f / scaleOf(posAndScale);
+            readTouch();
+            startPosX = (touchX - posAndScale.getXOff()) * currScaleInv;
+            startPosY = (touchY - posAndScale.getYOff()) * currScaleInv;
+            startScaleOverPinchDiam = posAndScale.getScale() / touchDiam;
+            startScaleXOverPinchWidth = posAndScale.getScaleX() / touchWidth;
+            startScaleYOverPinchHeight = posAndScale.getScaleY() / touchHeight;
+            startAngleMinusPinchAngle = posAndScale.getAngle() - touchAngle;
+        }
+
+        <T> void perform(GestureEngine<T> engine) {
+            float currScale = scaleOf(posAndScale);
+            readTouch();
+            float newPosX = touchX - startPosX * currScale;
+            float newPosY = touchY - startPosY * currScale;
+            float newScale = startScaleOverPinchDiam * touchDiam;
+            if (!dragOccurred) {
+                float deltaX = Math.abs(current.getX() - previous.getX());
+                float deltaY = Math.abs(current.getY() - previous.getY());
+                if (deltaX < THRESHOLD && deltaY < THRESHOLD
+                    && newScale == posAndScale.getScale()) {
+                    return;
+                }
+                dragOccurred = true;
+            }
+            posAndScale.set(newPosX, newPosY, newScale,
+                startScaleXOverPinchWidth * touchWidth, startScaleYOverPinchHeight * touchHeight,
+                startAngleMinusPinchAngle + touchAngle);
+            if (engine.deferTransform) {
+                pending = true;
+            } else {
+                pending = false;
+                engine.objectCanvas.setPositionAndScale(engine.objectOf(this), posAndScale,
+                    current);
+            }
+        }
+
+        <T> void flushPending(GestureEngine<T> engine) {
+            if (pending) {
+                pending = false;
+                engine.objectCanvas.setPositionAndScale(engine.objectOf(this), posAndScale,
+                    current);
+            }
+        }
+
+        /** Like extractCurrentTouchPointInfo(), for this grab's pointers */
+        private void readTouch() {
+            touchX = current.getX();
+            touchY = current.getY();
+            touchDiam = Math.max(MIN_MULTITOUCH_SEPARATION * .71f,
+                !posAndScale.isUpdateScale() ? 0.0f : current.getMultiTouchDiameter());
+            touchWidth = Math.max(MIN_MULTITOUCH_SEPARATION,
+                !posAndScale.isUpdateScaleXY() ? 0.0f : current.getMultiTouchWidth());
+            touchHeight = Math.max(MIN_MULTITOUCH_SEPARATION,
+                !posAndScale.isUpdateScaleXY() ? 0.0f : current.getMultiTouchHeight());
+            touchAngle = !posAndScale.isUpdateAngle() ? 0.0f : current.getMultiTouchAngle();
+        }
+    }
+
+    private static float scaleOf(PositionAndScale posAndScale) {
+        return !posAndScale.isUpdateScale() || posAndScale.getScale() == 0.0f
+            ? 1.0f : posAndScale.getScale();
+    }
+
+    // ---------------------------------------------------------------------------
+
+    /**
+     * Start dragging/pinching, or reset drag/pinch to current point if something
+     * goes out of range
+     */
+    private void anchorAtThisPositionAndScale() {
+        // Anchor at where the object really is
+        settleTransform();
+        if (mMode == MODE_CAMERA) {
+            // The camera is dragged like an object whose scale is the zoom
+            cameraCanvas.getCameraPositionAndScale(mCurrentTouchPointPosAndScale);
+        } else if (selectedObject != null) {
+            // Get selected object's current position and scale
+            objectCanvas.getPositionAndScale(selectedObject, mCurrentTouchPointPosAndScale);
+        } else {
+            return;
+        }
+
+        // Figure out the object coords of the drag start point's screen coords.
+        // All stretching should be around this point in object-coord-space.
+        // Also figure out out ratio between object scale factor and multitouch
+        // diameter at beginning of drag; same for angle and optional anisotropic
+        // scale.
+        float currScaleInv = 1.0f / (!mCurrentTouchPointPosAndScale.isUpdateScale() ? 1.0f
+            : mCurrentTouchPointPosAndScale.getScale() == 0.0f ? 1.0f : mCurrentTouchPointPosAndScale.getScale());
+        extractCurrentTouchPointInfo();
+        startPosX = (mCurrentTouchPointX - mCurrentTouchPointPosAndScale.getXOff()) * currScaleInv;
+        startPosY = (mCurrentTouchPointY - mCurrentTouchPointPosAndScale.getYOff()) * currScaleInv;
+        startScaleOverPinchDiam = mCurrentTouchPointPosAndScale.getScale() / mCurrentTouchPointDiam;
+        startScaleXOverPinchWidth = mCurrentTouchPointPosAndScale.getScaleX() / mCurrentTouchPointWidth;
+        startScaleYOverPinchHeight = mCurrentTouchPointPosAndScale.getScaleY() / mCurrentTouchPointHeight;
+        startAngleMinusPinchAngle = mCurrentTouchPointPosAndScale.getAngle() - mCurrentTouchPointAng;
+    }
+
+    /**
+     * Restart the current drag/pinch from the selected object's current
+     * position and scale, e.g. after the object was resized under the finger.
+     */
+    public void resetDrag() {
+        if (multiGrab) {
+            for (Grab grab : grabs) {
+                if (objectOf(grab) != null) {
+                    grab.anchor(this);
+                }
+            }
+            return;
+        }
+        anchorAtThisPositionAndScale();
+    }
+
+    /**
+     * Drag/stretch/rotate the selected object using the current touch
+     * position(s) relative to the anchor position(s).
+     */
+    private void performDragOrPinch() {
+        if (selectedObject == null && mMode != MODE_CAMERA) {
+            return;
+        }
+
+        // Calc new position of dragged object
+        float currScale = !mCurrentTouchPointPosAndScale.isUpdateScale() ? 1.0f
+            : mCurrentTouchPointPosAndScale.getScale() == 0.0f ? 1.0f : mCurrentTouchPointPosAndScale.getScale();
+        extractCurrentTouchPointInfo();
+        float newPosX = mCurrentTouchPointX - startPosX * currScale;
+        float newPosY = mCurrentTouchPointY - startPosY * currScale;
+
+        // Calc new angle of object, if any
+        //float newAngle = mCurrentTouchPointAng;
+        //if (getMode() == MODE_ST_GRAB) {
+        //    // grabbed by single touch area
+        //    newAngle = (float) Math.atan2(newPosY-startPosY,
+        //            newPosX-startPosX) + mCurrentTouchPointAng;
+        //} else {
+        //    newAngle = startAngleMinusPinchAngle + mCurrentTouchPointAng;
+        //}
+
+        float deltaX = mCurrentTouchPoint.getX() - mPrevTouchPoint.getX();
+        float deltaY = mCurrentTouchPoint.getY() - mPrevTouchPoint.getY();
+
+        // Calc new scale of object, if any
+        float newScale;
+        if (getMode() == MODE_ST_GRAB) {
+            if (deltaX < 0.0f || deltaY < 0.0f) {
+                newScale = mCurrentTouchPointPosAndScale.getScale() - 0.04f;
+            } else {
+                newScale = mCurrentTouchPointPosAndScale.getScale() + 0.04f;
+            }
+            if (newScale < 0.35f) return;
+        } else {
+            newScale = startScaleOverPinchDiam * mCurrentTouchPointDiam;
+        }
+
+        if (!mDragOccurred) {
+            if (!pastThreshold(Math.abs(deltaX), Math.abs(deltaY), newScale)) {
+                return;
+            }
+        }
+
+        float newScaleX = startScaleXOverPinchWidth * mCurrentTouchPointWidth;
+        float newScaleY = startScaleYOverPinchHeight * mCurrentTouchPointHeight;
+        float newAngle = startAngleMinusPinchAngle + mCurrentTouchPointAng;
+
+        // Set the new obj coords, scale, and angle as appropriate
+        // (notifying the subclass of the change).
+        mCurrentTouchPointPosAndScale.set(newPosX, newPosY, newScale, newScaleX, newScaleY, newAngle);
+
+        if (releaseHistory != null && mMode != MODE_CAMERA) {
+            releaseHistory.add(mCurrentTouchPoint.getEventTime(), mCurrentTouchPointPosAndScale);
+        }
+        if (predictor != null) {
+            // Every sample feeds the resampling, the next frame shows the result
+            predictor.addSample(mCurrentTouchPoint.getEventTime(),
+                mCurrentTouchPointPosAndScale);
+        } else if (deferTransform) {
+            // Coalescing, a later sample of this event applies it
+            transformPending = true;
+        } else {
+            transformPending = false;
+            applyTransform(mCurrentTouchPointPosAndScale);
+        }
+        mDragOccurred = true;
+    }
+
+    /**
+     * Set the new obj coords, scale, and angle (notifying the subclass of
+     * the change)
+     */
+    private void applyTransform(PositionAndScale posAndScale) {
+        if (mMode == MODE_CAMERA) {
+            cameraCanvas.setCameraPositionAndScale(posAndScale, mCurrentTouchPoint);
+        } else if (selectedObject != null) {
+            objectCanvas.setPositionAndScale(selectedObject, posAndScale, mCurrentTouchPoint);
+        }
+    }
+
+    private void flushPendingTransform() {
+        if (transformPending) {
+            transformPending = false;
+            applyTransform(mCurrentTouchPointPosAndScale);
+        }
+    }
+
+    /**
+     * Bring the object to the actual pose of the last sample, dropping any
+     * coalesced or predicted pose, before the drag is re-anchored or ends
+     */
+    private void settleTransform() {
+        flushPendingTransform();
+        if (predictor != null) {
+            predictor.finish();
+        }
+    }
+
+    /**
+     * Returns true if selectedObject has moved passed the movement THRESHOLD,
+     * otherwise false.
+     * This serves to help avoid small jitters in the object when the user
+     * places their finger on the object without intending to move it.
+     */
+    private boolean pastThreshold(float deltaX, float deltaY, float newScale) {
+        if (deltaX < THRESHOLD && deltaY < THRESHOLD) {
+            if (newScale == mCurrentTouchPointPosAndScale.getScale()) {
+                mDragOccurred = false;
+                return false;
+            }
+        }
+        mDragOccurred = true;
+        return true;
+    }
+
+    /**
+     * State-based controller for tracking switches between no-touch,
+     * single-touch and multi-touch situations. Includes logic for cleaning up the
+     * event stream, as events around touch up/down are noisy at least on
+     * early Synaptics sensors.
+     */
+    private void multiTouchController() {
+        switch (mMode) {
+            case MODE_NOTHING:
+                if (mCurrentTouchPoint.isDown()) {
+                    // Start a new single-point drag
+                    selectedObject = objectCanvas.getDraggableObjectAtPoint(mCurrentTouchPoint);
+                    if (selectedObject != null) {
+                        if (releaseHistory != null) {
+                            releaseHistory.clear();
+                        }
+                        objectCanvas.deselectAll();
+                        if (objectCanvas.pointInObjectGrabArea(mCurrentTouchPoint, selectedObject)) {
+                            // Started a new single-point scale/rotate
+                            setMode(MODE_ST_GRAB);
+
+                            objectCanvas.selectObject(selectedObject, mCurrentTouchPoint);
+                            anchorAtThisPositionAndScale();
+                            mSettleStartTime = mSettleEndTime = mCurrentTouchPoint.getEventTime();
+                        } else {
+                            // Started a new single-point drag
+                            setMode(MODE_DRAG);
+
+                            objectCanvas.selectObject(selectedObject, mCurrentTouchPoint);
+                            anchorAtThisPositionAndScale();
+                            // Don't need any settling time if just placing one finger,
+                            // there is no noise
+                            mSettleStartTime = mSettleEndTime = mCurrentTouchPoint.getEventTime();
+                        }
+                    } else if (cameraCanvas != null && mCurrentTouchPoint.isMultiTouch()) {
+                        // Two fingers on empty space, move the camera
+                        setMode(MODE_CAMERA);
+
+                        anchorAtThisPositionAndScale();
+                        mSettleStartTime = mCurrentTouchPoint.getEventTime();
+                        mSettleEndTime = mSettleStartTime + EVENT_SETTLE_TIME_INTERVAL;
+                    }
+                } else {
+                    objectCanvas.canvasTouched();
+                }
+                break;
+
+            case MODE_CAMERA:
+                if (!mCurrentTouchPoint.isDown()) {
+                    // All fingers released, stop moving the camera
+                    setMode(MODE_NOTHING);
+                    mDragOccurred = false;
+                } else if (mCurrentTouchPoint.isMultiTouch() != mPrevTouchPoint.isMultiTouch()) {
+                    // A finger was placed or lifted, restart from the new midpoint
+                    // and let events settle, like a pinch does
+                    anchorAtThisPositionAndScale();
+                    mSettleStartTime = mCurrentTouchPoint.getEventTime();
+                    mSettleEndTime = mSettleStartTime + EVENT_SETTLE_TIME_INTERVAL;
+                } else if (mCurrentTouchPoint.getEventTime() < mSettleEndTime) {
+                    anchorAtThisPositionAndScale();
+                } else {
+                    performDragOrPinch();
+                }
+                break;
+
+            case MODE_ST_GRAB:
+                if (!mCurrentTouchPoint.isDown()) {
+                    // First finger was released, stop scale/rotate
+                    setMode(MODE_NOTHING);
+
+                    objectCanvas.selectObject((selectedObject = null), mCurrentTouchPoint);
+                    mDragOccurred = false;
+                } else {
+                    // Point 1 is still down, do scale/rotate
+                    performDragOrPinch();
+                }
+                break;
+
+            case MODE_DRAG:
+                if (!mCurrentTouchPoint.isDown()) {
+                    // First finger was released, stop dragging
+                    setMode(MODE_NOTHING);
+
+                    startFling();
+                    objectCanvas.selectObject((selectedObject = null), mCurrentTouchPoint);
+                    mDragOccurred = false;
+                } else if (mCurrentTouchPoint.isMultiTouch()) {
+                    // Point 1 was already down and point 2 was just placed down
+                    setMode(MODE_PINCH);
+
+                    // Restart the drag with the new drag position (that is at the
+                    // midpoint between the touchpoints)
+                    anchorAtThisPositionAndScale();
+                    // Need to let events settle before moving things,
+                    // to help with event noise on touchdown
+                    mSettleStartTime = mCurrentTouchPoint.getEventTime();
+                    mSettleEndTime = mSettleStartTime + EVENT_SETTLE_TIME_INTERVAL;
+
+                } else {
+                    // Point 1 is still down and point 2 did not change state,
+                    // just do single-point drag to new location
+                    if (mCurrentTouchPoint.getEventTime() < mSettleEndTime) {
+                        // Ignore the first few events if we just stopped stretching,
+                        // because if finger 2 was kept down while
+                        // finger 1 is lifted, then point 1 gets mapped to finger 2.
+                        // Restart the drag from the new position.
+                        anchorAtThisPositionAndScale();
+                    } else {
+                        // Keep dragging, move to new point
+                        performDragOrPinch();
+                    }
+                }
+                break;
+
+            case MODE_PINCH:
+                if (!mCurrentTouchPoint.isMultiTouch() || !mCurrentTouchPoint.isDown()) {
+                    // Dropped one or both points, stop stretching
+                    if (!mCurrentTouchPoint.isDown()) {
+                        // Dropped both points, go back to doing nothing
+                        setMode(MODE_NOTHING);
+
+                        startFling();
+                        objectCanvas.selectObject((selectedObject = null), mCurrentTouchPoint);
+
+                    } else {
+                        // Just dropped point 2, downgrade to a single-point drag
+                        setMode(MODE_DRAG);
+
+                        // Restart the pinch with the single-finger position
+                        anchorAtThisPositionAndScale();
+                        // Ignore the first few events after the drop, in case we
+                        // dropped finger 1 and left finger 2 down
+                        mSettleStartTime = mCurrentTouchPoint.getEventTime();
+                        mSettleEndTime = mSettleStartTime + EVENT_SETTLE_TIME_INTERVAL;
+                    }
+
+                } else {
+                    // Still pinching
+                    if (Math.abs(mCurrentTouchPoint.getX() - mPrevTouchPoint.getX()) >
+                        MAX_MULTITOUCH_POS_JUMP_SIZE
+                        || Math.abs(mCurrentTouchPoint.getY() - mPrevTouchPoint.getY()) >
+                        MAX_MULTITOUCH_POS_JUMP_SIZE
+                        || Math.abs(mCurrentTouchPoint.getMultiTouchWidth() -
+                        mPrevTouchPoint.getMultiTouchWidth()) * .5f >
+                        MAX_MULTITOUCH_DIM_JUMP_SIZE
+                        || Math.abs(mCurrentTouchPoint.getMultiTouchHeight() -
+                        mPrevTouchPoint.getMultiTouchHeight()) * .5f >
+                        MAX_MULTITOUCH_DIM_JUMP_SIZE) {
+                        // Jumped too far, probably event noise, reset and ignore events
+                        // for a bit
+                        anchorAtThisPositionAndScale();
+                        mSettleStartTime = mCurrentTouchPoint.getEventTime();
+                        mSettleEndTime = mSettleStartTime + EVENT_SETTLE_TIME_INTERVAL;
+
+                    } else if (mCurrentTouchPoint.getEventTime() < mSettleEndTime) {
+                        // Events have not yet settled, reset
+                        anchorAtThisPositionAndScale();
+                    } else {
+                        // Stretch to new position and size
+                        performDragOrPinch();
+                    }
+                }
+                break;
+        }
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public void setMode(int newMode) {
+        mMode = newMode;
+    }
+}
@@ -0,0 +1,187 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes ImageSources on a small pool of background threads, through the
+ * shared BitmapCache, and delivers the results on the main thread.
+ */
+public class ImageLoader {
+    private static final String TAG = "ImageLoader";
+    private static final int THREAD_COUNT = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ImageLoader instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Called on the main thread, unless the task was cancelled first */
+    public interface Callback {
+        /**
+         * @param bitmap The decoded bitmap. A reference on it is held in the
+         * BitmapCache under cacheKey, which the callee must release when done.
+         */
+        void onImageLoaded(Bitmap bitmap, String cacheKey, int sampleSize,
+                           int sourceWidth, int sourceHeight);
+
+        void onImageLoadFailed(ImageSource source);
+    }
+
+    public static synchronized ImageLoader getInstance() {
+        if (instance == null) {
+            instance = new ImageLoader(THREAD_COUNT);
+        }
+        return instance;
+    }
+
+    public ImageLoader(int threadCount) {
+        executor = new ThreadPoolExecutor(threadCount, threadCount,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                        "TurboImageLoader #" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Decode the source in the background.
+     *
+     * @param requiredSize Size the longest side of the image is shown with;
+     * the image is subsampled as much as possible while still covering it.
+     * Pass 0 to decode at full resolution.
+     */
+    public Task load(Context context, ImageSource source, int requiredSize, Callback callback) {
+        Task task = new Task(context.getApplicationContext(), source, requiredSize, callback);
+        task.future = executor.submit(task);
+        return task;
+    }
+
+    /** Run some other decode job, e.g. a tile, on the loader threads */
+    Future<?> execute(Runnable job) {
+        return executor.submit(job);
+    }
+
+    void postToMainThread(Runnable runnable) {
+        mainHandler.post(runnable);
+    }
+
+    /** A pending decode, which can be cancelled until its result is delivered */
+    public final class Task implements Runnable {
+        private final Context context;
+        private final ImageSource source;
+        private final int requiredSize;
+        private final Callback callback;
+        private volatile boolean cancelled;
+        private Future<?> future;
+
+        private Task(Context context, ImageSource source, int requiredSize, Callback callback) {
+            this.context = context;
+            this.source = source;
+            this.requiredSize = requiredSize;
+            this.callback = callback;
+        }
+
+        /**
+         * Stop the decode if it did not run yet, and never deliver its result.
+         * Must be called on the main thread.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                decode();
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // E.g. a SecurityException from a content uri, or an image too large
+                // for the memory left; the object must still hear it won't load
+                Log.w(TAG, "Unable to decode " + source, e);
+                deliverFailure();
+            }
+        }
+
+        private void decode() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (!source.decodeBounds(context, options)) {
+                deliverFailure();
+                return;
+            }
+            final int sourceWidth = options.outWidth;
+            final int sourceHeight = options.outHeight;
+            final int sampleSize = requiredSize <= 0 ? 1
+                : ImageSource.calculateSampleSize(sourceWidth, sourceHeight, requiredSize);
+
+            final String cacheKey = BitmapCache.sourceKey(source, sampleSize);
+            BitmapCache cache = BitmapCache.getInstance();
+            Bitmap bitmap = cache.acquire(cacheKey);
+            if (bitmap == null) {
+                if (cancelled) {
+                    return;
+                }
+                bitmap = source.decode(context, sampleSize);
+                if (bitmap == null) {
+                    deliverFailure();
+                    return;
+                }
+                bitmap = cache.put(cacheKey, bitmap);
+            }
+
+            final Bitmap result = bitmap;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        BitmapCache.getInstance().release(cacheKey);
+                    } else {
+                        callback.onImageLoaded(result, cacheKey, sampleSize,
+                            sourceWidth, sourceHeight);
+                    }
+                }
+            });
+        }
+
+        private void deliverFailure() {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        callback.onImageLoadFailed(source);
+                    }
+                }
+            });
+        }
+    }
+}
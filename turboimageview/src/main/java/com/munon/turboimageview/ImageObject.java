@@ -3,35 +3,180 @@ package com.munon.turboimageview;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
+import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.Log;
 
 public class ImageObject extends MultiTouchObject {
+    private static final String TAG = "ImageObject";
     private static final double INITIAL_SCALE_FACTOR = 0.15;
+    private static final int PLACEHOLDER_COLOR = Color.LTGRAY;
 
     private transient Drawable drawable;
 
+    /** Set when decoded from a source, so it can be decoded again at another size */
+    private final ImageSource source;
+    private transient Context appContext;
+    private int sourceWidth;
+    private int sourceHeight;
+    /** 0 while nothing is decoded */
+    private int sampleSize;
+
+    /** Set when created from a resource id, so that snapshots can refer to it */
+    private int resourceId;
+
+    /** Key of the shared BitmapCache entry the drawable uses, if any */
+    private transient String cacheKey;
+
+    /**
+     * Key of the BitmapCache entry given back by unload() while the drawable
+     * was kept, because it can't be made again. Taken again by init().
+     */
+    private transient String releasedKey;
+
+    /** Background decode in flight, either the first load or a resolution upgrade */
+    private transient ImageLoader.Task loadTask;
+
+    /** Set when a resolution upgrade failed, until the image is loaded again */
+    private transient boolean upgradeFailed;
+
     public ImageObject(int resourceId, Resources res) {
         super(res);
-        drawable = res.getDrawable(resourceId);
+        source = null;
+        this.resourceId = resourceId;
+        loadResource(res);
         initPaint();
     }
 
+    /** Share the resource's bitmap through the BitmapCache where possible */
+    @SuppressWarnings("deprecation")
+    private void loadResource(Resources res) {
+        String key = "drawable:" + resourceId;
+        Bitmap cached = BitmapCache.getInstance().acquire(key);
+        if (cached != null) {
+            drawable = new BitmapDrawable(res, cached);
+            cacheKey = key;
+        } else {
+            drawable = res.getDrawable(resourceId);
+            if (drawable instanceof BitmapDrawable) {
+                // Only plain bitmaps can be shared, other drawables keep their own state
+                Bitmap bitmap = BitmapCache.getInstance()
+                    .put(key, ((BitmapDrawable) drawable).getBitmap());
+                drawable = new BitmapDrawable(res, bitmap);
+                cacheKey = key;
+            }
+        }
+    }
+
     public ImageObject(Drawable drawable, Resources res) {
         super(res);
         this.drawable = drawable;
+        source = null;
         initPaint();
     }
 
     public ImageObject(Bitmap bitmap, Resources res) {
+        this(res, bitmap, BitmapCache.identityKey(bitmap));
+    }
+
+    /**
+     * @param cacheKey Key the bitmap is shared under in the BitmapCache, so
+     * that objects created from copies of the same image can share one bitmap.
+     */
+    public ImageObject(Bitmap bitmap, String cacheKey, Resources res) {
+        // Kept apart from the keys the library makes up
+        this(res, bitmap, "key:" + cacheKey);
+    }
+
+    private ImageObject(Resources res, Bitmap bitmap, String cacheKey) {
         super(res);
-        this.drawable = new BitmapDrawable(res, bitmap);
+        this.cacheKey = cacheKey;
+        this.drawable = new BitmapDrawable(res, BitmapCache.getInstance().put(cacheKey, bitmap));
+        source = null;
+        initPaint();
+    }
+
+    /**
+     * Decode the image at roughly the size it is first shown with, instead
+     * of at full resolution. Only the image size is read here; the image is
+     * decoded in the background once the object is init()ed, and shown as a
+     * placeholder of the right size until then. It is decoded again at a
+     * higher resolution when zoomed in past the decoded size.
+     *
+     * @throws IllegalArgumentException if the source can not be read
+     */
+    public ImageObject(ImageSource source, Context context) {
+        super(context.getResources());
+        this.source = source;
+        this.appContext = context.getApplicationContext();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (!source.decodeBounds(appContext, options)) {
+            throw new IllegalArgumentException("Unable to read " + source);
+        }
+        sourceWidth = options.outWidth;
+        sourceHeight = options.outHeight;
+        initPlaceholderPaint();
+        initPaint();
+    }
+
+    /**
+     * Create a placeholder for an image that is decoded in the background as
+     * soon as the object is init()ed. The placeholder is a square of the
+     * initial on-screen size, and can be moved around until the image arrives.
+     */
+    static ImageObject createPlaceholder(ImageSource source, Context context) {
+        Resources res = context.getResources();
+        int size = (int) (Math.max(res.getDisplayMetrics().widthPixels,
+            res.getDisplayMetrics().heightPixels) * INITIAL_SCALE_FACTOR);
+        return new ImageObject(source, context, size, size);
+    }
+
+    /**
+     * Create a placeholder for an image whose size is already known, e.g.
+     * when restoring a saved scene, so it keeps its saved scale.
+     */
+    static ImageObject createPlaceholder(ImageSource source, Context context,
+                                         int sourceWidth, int sourceHeight) {
+        return new ImageObject(source, context, sourceWidth, sourceHeight);
+    }
+
+    /**
+     * Create a placeholder for a resource drawable whose size is already
+     * known. Bitmap resources are decoded in the background like any source,
+     * other drawables (shapes, vectors, ...) are inflated if that fails.
+     */
+    static ImageObject createPlaceholder(int resourceId, Context context,
+                                         int width, int height) {
+        ImageObject object = new ImageObject(ImageSource.fromResource(resourceId), context,
+            width, height);
+        object.resourceId = resourceId;
+        return object;
+    }
+
+    private ImageObject(ImageSource source, Context context,
+                        int placeholderWidth, int placeholderHeight) {
+        super(context.getResources());
+        this.source = source;
+        this.appContext = context.getApplicationContext();
+        sourceWidth = placeholderWidth;
+        sourceHeight = placeholderHeight;
+        initPlaceholderPaint();
         initPaint();
     }
 
+    /** The paint the square is drawn with while the image is being decoded */
+    private void initPlaceholderPaint() {
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(PLACEHOLDER_COLOR);
+    }
+
     public void initPaint() {
         borderPaint.setStyle(Paint.Style.STROKE);
         borderPaint.setColor(borderColor);
@@ -42,23 +187,14 @@ public class ImageObject extends MultiTouchObject {
 
     public void draw(Canvas canvas) {
         canvas.save();
+        canvas.concat(matrix);
 
-        float dx = (maxX + minX) / 2;
-        float dy = (maxY + minY) / 2;
-
-        drawable.setBounds((int) minX, (int) minY, (int) maxX, (int) maxY);
-        if (flippedHorizontally) {
-            canvas.scale(-1f, 1f, dx, dy);
-        }
-        canvas.translate(dx, dy);
-        if (flippedHorizontally) {
-            canvas.rotate(-angle * 180.0f / (float) Math.PI);
+        if (drawable != null) {
+            drawable.draw(canvas);
         } else {
-            canvas.rotate(angle * 180.0f / (float) Math.PI);
+            // Still loading
+            canvas.drawRect(minX, minY, maxX, maxY, paint);
         }
-        canvas.translate(-dx, -dy);
-
-        drawable.draw(canvas);
 
         if (isLatestSelected) {
             canvas.drawRect((int) minX, (int) minY, (int) maxX, (int) maxY, borderPaint);
@@ -69,12 +205,175 @@ public class ImageObject extends MultiTouchObject {
         canvas.restore();
     }
 
+    @Override
+    public void drawContent(Canvas canvas) {
+        canvas.save();
+        canvas.concat(matrix);
+        Drawable current = drawable;
+        if (current instanceof BitmapDrawable) {
+            // Draw the bitmap directly, Drawable.draw() is not safe to share between threads
+            canvas.drawBitmap(((BitmapDrawable) current).getBitmap(), null,
+                new RectF(minX, minY, maxX, maxY), ((BitmapDrawable) current).getPaint());
+        } else if (current != null) {
+            current.draw(canvas);
+        } else {
+            canvas.drawRect(minX, minY, maxX, maxY, paint);
+        }
+        canvas.restore();
+    }
+
+    @Override
+    protected boolean setPos(float centerX, float centerY,
+                             float scaleX, float scaleY, float angle) {
+        boolean moved = super.setPos(centerX, centerY, scaleX, scaleY, angle);
+        if (source != null && sampleSize > 1 && loadTask == null && !upgradeFailed) {
+            upgradeResolutionIfNeeded();
+        }
+        if (drawable != null) {
+            drawable.setBounds((int) minX, (int) minY, (int) maxX, (int) maxY);
+        }
+        return moved;
+    }
+
     /**
-     * Called by activity's onPause() method to free memory used for loading the images
+     * Decode the source again in the background with a smaller sample size
+     * once the object is shown larger than its decoded bitmap. The current
+     * bitmap is shown until then.
+     */
+    private void upgradeResolutionIfNeeded() {
+        float shownSize = Math.max(maxX - minX, maxY - minY);
+        int decodedSize = Math.max(sourceWidth, sourceHeight) / sampleSize;
+        if (shownSize > decodedSize) {
+            loadAsync((int) Math.ceil(shownSize));
+        }
+    }
+
+    private void loadAsync(int requiredSize) {
+        loadTask = ImageLoader.getInstance().load(appContext, source, requiredSize,
+            new ImageLoader.Callback() {
+                @Override
+                public void onImageLoaded(Bitmap bitmap, String key, int newSampleSize,
+                                          int newSourceWidth, int newSourceHeight) {
+                    loadTask = null;
+                    if (drawable != null && newSampleSize >= sampleSize) {
+                        // Zoomed out again before the upgrade arrived
+                        BitmapCache.getInstance().release(key);
+                        return;
+                    }
+                    setBitmap(bitmap, key, newSampleSize, newSourceWidth, newSourceHeight);
+                }
+
+                @Override
+                public void onImageLoadFailed(ImageSource failedSource) {
+                    loadTask = null;
+                    if (drawable == null && resourceId != 0) {
+                        // Not a bitmap, see createPlaceholder(int, ...)
+                        setResourceDrawable();
+                        return;
+                    }
+                    if (drawable != null) {
+                        // Don't try again on every move, e.g. after running out of memory
+                        upgradeFailed = true;
+                    }
+                    Log.w(TAG, "Unable to load " + failedSource);
+                }
+            });
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setResourceDrawable() {
+        drawable = appContext.getResources().getDrawable(resourceId);
+        drawable.setBounds((int) minX, (int) minY, (int) maxX, (int) maxY);
+        invalidateSelf();
+    }
+
+    /** Show a bitmap decoded in the background, swapping out the placeholder */
+    private void setBitmap(Bitmap bitmap, String key, int newSampleSize,
+                           int newSourceWidth, int newSourceHeight) {
+        invalidateSelf();
+        boolean wasPlaceholder = drawable == null;
+        releaseBitmap();
+        cacheKey = key;
+        sampleSize = newSampleSize;
+        drawable = new BitmapDrawable(appContext.getResources(), bitmap);
+
+        if (wasPlaceholder) {
+            // Keep the size the placeholder is currently shown with
+            float shownSize = Math.max(maxX - minX, maxY - minY);
+            sourceWidth = width = newSourceWidth;
+            sourceHeight = height = newSourceHeight;
+            float scale = shownSize / Math.max(newSourceWidth, newSourceHeight);
+            setPos(centerX, centerY, scale, scale, angle);
+            if (getCallback() != null) {
+                getCallback().onIntrinsicSizeChanged(this);
+            }
+        } else {
+            drawable.setBounds((int) minX, (int) minY, (int) maxX, (int) maxY);
+        }
+        invalidateSelf();
+    }
+
+    /** False while the image is still being decoded in the background */
+    public boolean isLoaded() {
+        return drawable != null;
+    }
+
+    /** Give the shared bitmap back to the cache */
+    private void releaseBitmap() {
+        if (cacheKey != null) {
+            BitmapCache.getInstance().release(cacheKey);
+            cacheKey = null;
+        }
+    }
+
+    /** The source this object was decoded from, or null */
+    public ImageSource getSource() {
+        return source;
+    }
+
+    /** The resource id this object was created from, or 0 */
+    public int getResourceId() {
+        return resourceId;
+    }
+
+    /**
+     * Called by activity's onPause() method to free memory used for loading the images.
+     * Objects made from a Bitmap or Drawable keep it, as init() couldn't get
+     * it back; only their cache reference is given back.
      */
     @Override
     public void unload() {
+        if (loadTask != null) {
+            loadTask.cancel();
+            loadTask = null;
+        }
+        if (source == null && resourceId == 0) {
+            if (cacheKey != null) {
+                releasedKey = cacheKey;
+            }
+            releaseBitmap();
+            return;
+        }
+        releaseBitmap();
         this.drawable = null;
+        sampleSize = 0;
+        upgradeFailed = false;
+    }
+
+    /** Get back what unload() let go of, for objects that aren't decoded in the background */
+    private void reload(Resources res) {
+        if (drawable == null) {
+            loadResource(res);
+        } else if (releasedKey != null) {
+            // The cache may have dropped the entry, the kept bitmap then goes back in
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            Bitmap cached = BitmapCache.getInstance().put(releasedKey, bitmap);
+            if (cached != bitmap) {
+                drawable = new BitmapDrawable(res, cached);
+            }
+            cacheKey = releasedKey;
+            releasedKey = null;
+        }
     }
 
     /** Called by activity's onResume() method to init the images */
@@ -87,8 +386,16 @@ public class ImageObject extends MultiTouchObject {
         this.startMidX = startMidX;
         this.startMidY = startMidY;
 
-        width = drawable.getIntrinsicWidth();
-        height = drawable.getIntrinsicHeight();
+        if (source != null) {
+            appContext = context.getApplicationContext();
+            // Sizes are in source pixels, however much the bitmap is subsampled
+            width = sourceWidth;
+            height = sourceHeight;
+        } else {
+            reload(res);
+            width = drawable.getIntrinsicWidth();
+            height = drawable.getIntrinsicHeight();
+        }
 
         float centerX;
         float centerY;
@@ -113,5 +420,10 @@ public class ImageObject extends MultiTouchObject {
             angle = this.angle;
         }
         setPos(centerX, centerY, scaleX, scaleY, angle);
+
+        // Decoded, or decoded again after unload(), off the main thread
+        if (source != null && drawable == null && loadTask == null) {
+            loadAsync((int) Math.ceil(Math.max(maxX - minX, maxY - minY)));
+        }
     }
 }
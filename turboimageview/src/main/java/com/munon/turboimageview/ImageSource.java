@@ -0,0 +1,202 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+/**
+ * Where an image comes from: a resource, an asset, a file or a content URI.
+ * Unlike a Bitmap, a source can be decoded again at any resolution, so
+ * objects only keep as many pixels in memory as they show on screen.
+ */
+public final class ImageSource implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String TAG = "ImageSource";
+
+    public static final int TYPE_RESOURCE = 0;
+    public static final int TYPE_ASSET = 1;
+    public static final int TYPE_FILE = 2;
+    public static final int TYPE_URI = 3;
+
+    private final int type;
+    private final int resourceId;
+    private final String path;
+
+    private ImageSource(int type, int resourceId, String path) {
+        this.type = type;
+        this.resourceId = resourceId;
+        this.path = path;
+    }
+
+    public static ImageSource fromResource(int resourceId) {
+        return new ImageSource(TYPE_RESOURCE, resourceId, null);
+    }
+
+    public static ImageSource fromAsset(String assetPath) {
+        return new ImageSource(TYPE_ASSET, 0, assetPath);
+    }
+
+    public static ImageSource fromFile(String filePath) {
+        return new ImageSource(TYPE_FILE, 0, filePath);
+    }
+
+    public static ImageSource fromUri(Uri uri) {
+        return new ImageSource(TYPE_URI, 0, uri.toString());
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getResourceId() {
+        return resourceId;
+    }
+
+    /** The asset path, file path or URI string, null for resources */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Read only the image header into options.outWidth/outHeight.
+     *
+     * @return false if the image could not be read
+     */
+    public boolean decodeBounds(Context context, BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        try {
+            decode(context, options);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + this, e);
+            return false;
+        } finally {
+            options.inJustDecodeBounds = false;
+        }
+        return options.outWidth > 0 && options.outHeight > 0;
+    }
+
+    /**
+     * Decode the image, subsampled by sampleSize (a power of two).
+     *
+     * @return the bitmap, or null if the image could not be decoded
+     */
+    public Bitmap decode(Context context, int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        try {
+            return decode(context, options);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to decode " + this, e);
+            return null;
+        }
+    }
+
+    private Bitmap decode(Context context, BitmapFactory.Options options) throws IOException {
+        if (type == TYPE_RESOURCE) {
+            // Goes through decodeResource so density scaling matches getDrawable()
+            return BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        }
+        InputStream inputStream = open(context);
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /** Open the encoded image, for stream based decoders */
+    public InputStream open(Context context) throws IOException {
+        switch (type) {
+            case TYPE_RESOURCE:
+                return context.getResources().openRawResource(resourceId);
+            case TYPE_ASSET:
+                return context.getAssets().open(path);
+            case TYPE_FILE:
+                return new FileInputStream(path);
+            default:
+                InputStream inputStream =
+                    context.getContentResolver().openInputStream(Uri.parse(path));
+                if (inputStream == null) {
+                    throw new IOException("No content for " + path);
+                }
+                return inputStream;
+        }
+    }
+
+    /** Write a compact reference to this source, read back by readFrom() */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type);
+        if (type == TYPE_RESOURCE) {
+            out.writeInt(resourceId);
+        } else {
+            out.writeUTF(path);
+        }
+    }
+
+    public static ImageSource readFrom(DataInput in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case TYPE_RESOURCE:
+                return new ImageSource(type, in.readInt(), null);
+            case TYPE_ASSET:
+            case TYPE_FILE:
+            case TYPE_URI:
+                return new ImageSource(type, 0, in.readUTF());
+            default:
+                throw new IOException("Unknown image source type " + type);
+        }
+    }
+
+    /**
+     * Largest power of two sample size that still decodes the longest side
+     * of a width x height image to at least requiredSize pixels.
+     */
+    public static int calculateSampleSize(int width, int height, int requiredSize) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= requiredSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageSource)) {
+            return false;
+        }
+        ImageSource other = (ImageSource) o;
+        return type == other.type && resourceId == other.resourceId
+            && (path == null ? other.path == null : path.equals(other.path));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * type + resourceId) + (path == null ? 0 : path.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case TYPE_RESOURCE:
+                return "resource:" + resourceId;
+            case TYPE_ASSET:
+                return "asset:" + path;
+            case TYPE_FILE:
+                return "file:" + path;
+            default:
+                return "uri:" + path;
+        }
+    }
+}
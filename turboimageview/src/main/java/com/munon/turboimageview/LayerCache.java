@@ -0,0 +1,143 @@
+package com.munon.turboimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.util.Log;
+import java.util.List;
+
+/**
+ * Flattens the objects below and above a manipulated object into
+ * view-sized bitmaps, so that a drag only has to redraw the moving object.
+ * The above layer only exists while some object is stacked above it.
+ * The bitmaps are kept around and reused by the next build.
+ */
+class LayerCache {
+    private static final String TAG = "LayerCache";
+
+    private final Canvas layerCanvas = new Canvas();
+
+    private Bitmap belowLayer;
+    private Bitmap aboveLayer;
+    private boolean hasAboveLayer;
+
+    /** The object the layers were built around, drawn live between them */
+    private MultiTouchObject owner;
+    private boolean stale = true;
+
+    /**
+     * Make sure the layers are built around the given object, rebuilding
+     * them only if they are stale or were built around another object.
+     * The objects are drawn through the camera matrix, which maps scene
+     * coords to view coords and scales them by zoom.
+     *
+     * @return false if the layers could not be built, in which case the scene
+     * should be drawn directly.
+     */
+    boolean build(List<MultiTouchObject> objects, MultiTouchObject object, int width, int height,
+                  Matrix camera, float zoom) {
+        if (!stale && owner == object && belowLayer != null
+            && belowLayer.getWidth() == width && belowLayer.getHeight() == height) {
+            return true;
+        }
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        int index = objects.indexOf(object);
+        if (index < 0) {
+            return false;
+        }
+        try {
+            belowLayer = prepare(belowLayer, width, height);
+            // A dragged object is raised to the top, so usually nothing is above it
+            hasAboveLayer = index < objects.size() - 1;
+            if (hasAboveLayer) {
+                aboveLayer = prepare(aboveLayer, width, height);
+            } else if (aboveLayer != null) {
+                aboveLayer.recycle();
+                aboveLayer = null;
+            }
+            render(objects, object, camera, zoom);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Not enough memory for layers, drawing directly", e);
+            release();
+            return false;
+        }
+        owner = object;
+        stale = false;
+        return true;
+    }
+
+    /** Draw the cached layers with the owner object live in between */
+    void draw(Canvas canvas, Matrix camera, float zoom) {
+        canvas.drawBitmap(belowLayer, 0, 0, null);
+        canvas.save();
+        canvas.concat(camera);
+        owner.draw(canvas, zoom);
+        canvas.restore();
+        if (hasAboveLayer) {
+            canvas.drawBitmap(aboveLayer, 0, 0, null);
+        }
+    }
+
+    /**
+     * Called when an object changed; only changes to objects other than the
+     * owner make the layers stale.
+     */
+    void onObjectChanged(MultiTouchObject object) {
+        if (object != owner) {
+            stale = true;
+        }
+    }
+
+    void invalidate() {
+        stale = true;
+    }
+
+    void release() {
+        if (belowLayer != null) {
+            belowLayer.recycle();
+            belowLayer = null;
+        }
+        if (aboveLayer != null) {
+            aboveLayer.recycle();
+            aboveLayer = null;
+        }
+        owner = null;
+        stale = true;
+    }
+
+    private Bitmap prepare(Bitmap layer, int width, int height) {
+        if (layer != null && layer.getWidth() == width && layer.getHeight() == height) {
+            layer.eraseColor(Color.TRANSPARENT);
+            return layer;
+        }
+        if (layer != null) {
+            layer.recycle();
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Draw the objects below the owner into the below layer and the rest into
+     * the above layer, in one pass in stacking order
+     */
+    private void render(List<MultiTouchObject> objects, MultiTouchObject object, Matrix camera,
+                        float zoom) {
+        layerCanvas.setBitmap(belowLayer);
+        layerCanvas.setMatrix(camera);
+        for (MultiTouchObject other : objects) {
+            if (other == object) {
+                if (!hasAboveLayer) {
+                    break;
+                }
+                layerCanvas.setBitmap(aboveLayer);
+                layerCanvas.setMatrix(camera);
+            } else {
+                other.draw(layerCanvas, zoom);
+            }
+        }
+        layerCanvas.setBitmap(null);
+    }
+}
@@ -0,0 +1,24 @@
+package com.munon.turboimageview;
+
+/**
+ * Implemented by canvases whose view of the scene can be panned and zoomed
+ * by dragging or pinching empty space with two fingers. The camera maps
+ * scene coords to screen coords as screen = scene * scale + offset.
+ */
+public interface MultiTouchCameraCanvas {
+
+    /**
+     * Record the current camera offset and zoom in camPosAndScaleOut, with
+     * the offset as xOff/yOff and the zoom as the scale.
+     */
+    public void getCameraPositionAndScale(PositionAndScale camPosAndScaleOut);
+
+    /**
+     * Move the camera to the new offset and zoom.
+     *
+     * @param touchPoint The point the gesture is centered on, to keep it
+     * anchored when the zoom has to be clamped.
+     */
+    public void setCameraPositionAndScale(PositionAndScale newCamPosAndScale,
+                                          PointInfo touchPoint);
+}
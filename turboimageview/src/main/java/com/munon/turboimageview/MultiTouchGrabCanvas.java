@@ -0,0 +1,18 @@
+package com.munon.turboimageview;
+
+/**
+ * Implemented by canvases that let several objects be held at once, see
+ * GestureEngine.setMultiGrabEnabled(). Each object grabbed through
+ * MultiTouchObjectCanvas.selectObject() is let go through releaseObject(),
+ * so the canvas always knows which objects are still held.
+ */
+public interface MultiTouchGrabCanvas<T> {
+
+    /**
+     * The last finger on obj was lifted. Called once for every object
+     * selected by a grab, in the order they are let go.
+     *
+     * @param touchPoint The last point of the fingers that held obj.
+     */
+    public void releaseObject(T obj, PointInfo touchPoint);
+}
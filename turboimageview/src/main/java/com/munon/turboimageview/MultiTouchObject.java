@@ -5,7 +5,9 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.RectF;
 import android.util.DisplayMetrics;
 import java.io.Serializable;
 
@@ -41,6 +43,22 @@ public abstract class MultiTouchObject implements Serializable {
     protected boolean isGrabAreaSelected = false;
     protected boolean isLatestSelected = false;
 
+    /**
+     * Cached rotation (and flip) around the center, applied on top of the
+     * axis-aligned minX/minY/maxX/maxY rect when drawing
+     */
+    protected final transient Matrix matrix = new Matrix();
+
+    /** Cached cos/sin of the angle, to map touches back into object space */
+    protected float cosAngle = 1.0f;
+    protected float sinAngle;
+
+    /** Axis-aligned screen bounds of the rotated object */
+    protected float boundsLeft;
+    protected float boundsTop;
+    protected float boundsRight;
+    protected float boundsBottom;
+
     protected float grabAreaX1;
     protected float grabAreaY1;
     protected float grabAreaX2;
@@ -55,13 +73,40 @@ public abstract class MultiTouchObject implements Serializable {
     private static final int UI_MODE_ANISOTROPIC_SCALE = 2;
     protected final int mUIMode = UI_MODE_ROTATE;
 
+    private transient Callback callback;
+
+    /** Position in the canvas' selection list, or -1 when not selected there */
+    transient int selectionIndex = -1;
+
+    /** Slot in the canvas' SceneStore, or -1 when it doesn't use one */
+    transient int storeSlot = -1;
+
+    /**
+     * Implemented by the canvas holding this object, to be told when the
+     * object changes outside of a drag.
+     */
+    public interface Callback {
+        /** The object's screen bounds changed */
+        void onBoundsChanged(MultiTouchObject object);
+
+        /** The object needs to be redrawn */
+        void invalidateObject(MultiTouchObject object);
+
+        /**
+         * The object's width/height changed, so any drag in progress has to
+         * be restarted from the object's current position and scale
+         */
+        void onIntrinsicSizeChanged(MultiTouchObject object);
+
+        /** The object was selected or deselected */
+        void onSelectionChanged(MultiTouchObject object);
+    }
+
     public MultiTouchObject(Resources res) {
         init(res);
     }
 
     protected void init(Resources res) {
-        flippedHorizontally = false;
-
         DisplayMetrics metrics = res.getDisplayMetrics();
         displayWidth =
             (res.getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE)
@@ -123,14 +168,78 @@ public abstract class MultiTouchObject implements Serializable {
         this.scaleY = scaleY;
         this.angle = angle;
 
+        updateTransform();
+
+        if (callback != null) {
+            callback.onBoundsChanged(this);
+        }
         return true;
     }
 
     /**
-     * Return whether or not the given screen coords are inside this image
+     * Recompute the cached draw matrix, the inverse rotation used by
+     * containsPoint() and the rotated bounds. Called whenever the position,
+     * scale, angle or flip changes, so drawing and hit-testing never have to.
+     */
+    protected void updateTransform() {
+        cosAngle = (float) Math.cos(angle);
+        sinAngle = (float) Math.sin(angle);
+
+        matrix.setRotate(angle * 180.0f / (float) Math.PI, centerX, centerY);
+        if (flippedHorizontally) {
+            matrix.preScale(-1f, 1f, centerX, centerY);
+        }
+
+        float ws = (maxX - minX) / 2;
+        float hs = (maxY - minY) / 2;
+        float extentX = Math.abs(cosAngle) * ws + Math.abs(sinAngle) * hs;
+        float extentY = Math.abs(sinAngle) * ws + Math.abs(cosAngle) * hs;
+        boundsLeft = centerX - extentX;
+        boundsTop = centerY - extentY;
+        boundsRight = centerX + extentX;
+        boundsBottom = centerY + extentY;
+    }
+
+    /**
+     * Return whether or not the given screen coords are inside this image,
+     * taking its rotation into account
      */
     public boolean containsPoint(float touchX, float touchY) {
-        return (touchX >= minX && touchX <= maxX && touchY >= minY && touchY <= maxY);
+        if (touchX < boundsLeft || touchX > boundsRight
+            || touchY < boundsTop || touchY > boundsBottom) {
+            return false;
+        }
+        // Rotate the touch back into the object's axis-aligned frame
+        float dx = touchX - centerX;
+        float dy = touchY - centerY;
+        float localX = dx * cosAngle + dy * sinAngle;
+        float localY = dy * cosAngle - dx * sinAngle;
+        return Math.abs(localX) <= (maxX - minX) / 2 && Math.abs(localY) <= (maxY - minY) / 2;
+    }
+
+    /** Get the axis-aligned screen bounds of the rotated object */
+    public void getBounds(RectF out) {
+        out.set(boundsLeft, boundsTop, boundsRight, boundsBottom);
+    }
+
+    /**
+     * Get the screen area that drawing this object can touch: its rotated
+     * bounds grown by the selection border stroke and a pixel of antialiasing
+     */
+    public void getDirtyBounds(RectF out) {
+        float outset = getDirtyOutset();
+        out.set(boundsLeft - outset, boundsTop - outset,
+            boundsRight + outset, boundsBottom + outset);
+    }
+
+    /** Copy the transform and dirty bounds into a SceneStore slot */
+    void copyTo(SceneStore store, int slot) {
+        store.set(slot, centerX, centerY, (maxX - minX) / 2, (maxY - minY) / 2,
+            cosAngle, sinAngle, getDirtyOutset());
+    }
+
+    private float getDirtyOutset() {
+        return borderPaint.getStrokeWidth() + 1.0f;
     }
 
     public boolean grabAreaContainsPoint(float touchX, float touchY) {
@@ -138,14 +247,70 @@ public abstract class MultiTouchObject implements Serializable {
             touchY >= grabAreaY1 && touchY <= grabAreaY2);
     }
 
+    /**
+     * Set the position, scale, angle and selection a restored object had
+     * when saved. The values are applied by the next init() instead of the
+     * initial defaults.
+     */
+    void restoreState(float centerX, float centerY, float scaleX, float scaleY, float angle,
+                      boolean flipped, boolean selected, int borderColor) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        this.angle = angle;
+        this.flippedHorizontally = flipped;
+        this.isLatestSelected = selected;
+        setBorderColor(borderColor);
+        firstLoad = false;
+    }
+
     public void reload(Context context) {
         firstLoad = false; // Let the init know properties have changed so reload those,
         // don't go back and start with defaults
         init(context, centerX, centerY);
     }
 
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    public Callback getCallback() {
+        return callback;
+    }
+
+    /** Ask the canvas holding this object to redraw it */
+    protected void invalidateSelf() {
+        if (callback != null) {
+            callback.invalidateObject(this);
+        }
+    }
+
     public abstract void draw(Canvas canvas);
 
+    /**
+     * Draw the object on a canvas that scales scene coords by canvasScale,
+     * e.g. the view's camera zoom, for objects whose detail depends on the
+     * size they are shown at. Default: draw(canvas)
+     */
+    public void draw(Canvas canvas, float canvasScale) {
+        draw(canvas);
+    }
+
+    /**
+     * Draw the object without its selection border, e.g. when exporting the
+     * scene. May be called from several threads at once, so subclasses that
+     * override it must not change any state. Default: draw()
+     */
+    public void drawContent(Canvas canvas) {
+        draw(canvas);
+    }
+
+    /** drawContent() on a canvas that scales scene coords by canvasScale */
+    public void drawContent(Canvas canvas, float canvasScale) {
+        drawContent(canvas);
+    }
+
     public abstract void init(Context context, float startMidX, float startMidY);
 
     public abstract void unload();
@@ -207,7 +372,13 @@ public abstract class MultiTouchObject implements Serializable {
     }
 
     public void setSelected(boolean selected) {
+        if (isLatestSelected == selected) {
+            return;
+        }
         this.isLatestSelected = selected;
+        if (callback != null) {
+            callback.onSelectionChanged(this);
+        }
     }
 
     public int getBorderColor() {
@@ -225,5 +396,6 @@ public abstract class MultiTouchObject implements Serializable {
 
     public void setFlippedHorizontally(boolean flipped) {
         this.flippedHorizontally = flipped;
+        updateTransform();
     }
 }
@@ -0,0 +1,21 @@
+package com.munon.turboimageview;
+
+/** Picks the objects a SceneBatch operation applies to */
+public interface ObjectFilter {
+
+    ObjectFilter ALL = new ObjectFilter() {
+        @Override
+        public boolean accept(MultiTouchObject object) {
+            return true;
+        }
+    };
+
+    ObjectFilter SELECTED = new ObjectFilter() {
+        @Override
+        public boolean accept(MultiTouchObject object) {
+            return object.isSelected();
+        }
+    };
+
+    boolean accept(MultiTouchObject object);
+}
@@ -0,0 +1,93 @@
+package com.munon.turboimageview;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an RGBA PNG row by row, so an image can be encoded without ever
+ * holding all of its pixels. Bitmap.compress() needs the whole bitmap.
+ */
+class PngStreamWriter {
+    private static final byte[] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final CRC32 crc = new CRC32();
+    private final byte[] rowBytes;
+    private final byte[] deflated = new byte[IDAT_SIZE];
+
+    PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.rowBytes = new byte[1 + width * 4];
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // color type: RGBA
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /** Append rowCount rows of ARGB pixels, rowStride ints apart */
+    void writeRows(int[] pixels, int rowStride, int rowCount) throws IOException {
+        for (int row = 0; row < rowCount; row++) {
+            rowBytes[0] = 0; // no filter
+            int offset = row * rowStride;
+            for (int x = 0, i = 1; x < width; x++) {
+                int argb = pixels[offset + x];
+                rowBytes[i++] = (byte) (argb >> 16);
+                rowBytes[i++] = (byte) (argb >> 8);
+                rowBytes[i++] = (byte) argb;
+                rowBytes[i++] = (byte) (argb >>> 24);
+            }
+            deflater.setInput(rowBytes);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+    }
+
+    void finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain();
+        }
+        deflater.end();
+        writeChunk("IEND", deflated, 0);
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        // The overload taking a flush mode needs API 19
+        int length = deflater.deflate(deflated, 0, deflated.length);
+        if (length > 0) {
+            writeChunk("IDAT", deflated, length);
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -6,12 +6,15 @@ package com.munon.turboimageview;
  */
 
 public class PointInfo {
+    /** Most touch points kept per event, the rest are ignored */
+    public static final int MAX_TOUCH_POINTS = 20;
+
     // Multitouch information
     private int numPoints;
-    private float[] xs = new float[MultiTouchController.MAX_TOUCH_POINTS];
-    private float[] ys = new float[MultiTouchController.MAX_TOUCH_POINTS];
-    private float[] pressures = new float[MultiTouchController.MAX_TOUCH_POINTS];
-    private int[] pointerIds = new int[MultiTouchController.MAX_TOUCH_POINTS];
+    private float[] xs = new float[MAX_TOUCH_POINTS];
+    private float[] ys = new float[MAX_TOUCH_POINTS];
+    private float[] pressures = new float[MAX_TOUCH_POINTS];
+    private int[] pointerIds = new int[MAX_TOUCH_POINTS];
 
     // Midpoint of pinch operations
     private float xMid;
@@ -0,0 +1,200 @@
+package com.munon.turboimageview;
+
+/**
+ * The last few poses (position, scale and angle) a drag computed, with the
+ * time of the touch sample each came from, to resample the drag at display
+ * frame times. Preallocated ring buffer, nothing is allocated per sample.
+ */
+public class PoseHistory {
+    private static final int CAPACITY = 8;
+
+    /** Samples older than this, relative to the frame, are not extrapolated from */
+    private static final long MAX_SAMPLE_AGE_MILLIS = 20;
+
+    /** Shortest span the velocity is measured over, to damp sensor noise */
+    private static final long MIN_VELOCITY_SPAN_MILLIS = 8;
+
+    /**
+     * How far past the newest sample the frame itself may be extrapolated to,
+     * on top of the prediction
+     */
+    private static final long MAX_RESAMPLE_LATENCY_MILLIS = 8;
+
+    private final long[] times = new long[CAPACITY];
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private final float[] scales = new float[CAPACITY];
+    private final float[] scaleXs = new float[CAPACITY];
+    private final float[] scaleYs = new float[CAPACITY];
+    private final float[] angles = new float[CAPACITY];
+
+    /** Index of the newest sample */
+    private int head = -1;
+    private int size;
+
+    public void add(long time, PositionAndScale pose) {
+        if (size > 0 && time < times[head]) {
+            // Out of order, e.g. a new gesture reusing the history
+            clear();
+        }
+        head = (head + 1) % CAPACITY;
+        times[head] = time;
+        xs[head] = pose.getXOff();
+        ys[head] = pose.getYOff();
+        scales[head] = pose.getScale();
+        scaleXs[head] = pose.getScaleX();
+        scaleYs[head] = pose.getScaleY();
+        angles[head] = pose.getAngle();
+        if (size < CAPACITY) {
+            size++;
+        }
+    }
+
+    public void clear() {
+        head = -1;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Time of the newest sample */
+    public long getLatestTime() {
+        return times[head];
+    }
+
+    /** Write the newest pose into out, keeping out's update flags */
+    public void getLatest(PositionAndScale out) {
+        write(head, out);
+    }
+
+    /**
+     * Write the pose at frameTime + predictionMillis into out, keeping out's
+     * update flags. Between samples the pose is interpolated; past the newest
+     * sample it is extrapolated from the recent velocity, unless the newest
+     * sample is too old for that, e.g. because the finger stopped moving.
+     *
+     * @return true if the pose was extrapolated, false if it is interpolated
+     * or the newest actual pose
+     */
+    public boolean resample(long frameTime, int predictionMillis, PositionAndScale out) {
+        if (size == 0) {
+            return false;
+        }
+        long target = frameTime + predictionMillis;
+        long newestTime = times[head];
+        if (target >= newestTime) {
+            if (size < 2 || frameTime - newestTime > MAX_SAMPLE_AGE_MILLIS) {
+                write(head, out);
+                return false;
+            }
+            int from = head;
+            for (int i = 1; i < size; i++) {
+                from = (head - i + CAPACITY) % CAPACITY;
+                if (newestTime - times[from] >= MIN_VELOCITY_SPAN_MILLIS) {
+                    break;
+                }
+            }
+            long span = newestTime - times[from];
+            long horizon = Math.min(target - newestTime,
+                predictionMillis + MAX_RESAMPLE_LATENCY_MILLIS);
+            if (span <= 0 || horizon <= 0) {
+                write(head, out);
+                return false;
+            }
+            float t = (float) horizon / span;
+            blend(from, head, 1.0f + t, out);
+            return true;
+        }
+
+        // Find the samples bracketing the target and interpolate between them
+        int newer = head;
+        for (int i = 1; i < size; i++) {
+            int older = (head - i + CAPACITY) % CAPACITY;
+            if (times[older] <= target) {
+                long span = times[newer] - times[older];
+                float t = span > 0 ? (float) (target - times[older]) / span : 1.0f;
+                blend(older, newer, t, out);
+                return false;
+            }
+            newer = older;
+        }
+        // Older than all samples
+        write(newer, out);
+        return false;
+    }
+
+    /**
+     * Compute how fast the pose was changing at the given time, e.g. when the
+     * finger was lifted, from the samples of the last windowMillis. Writes the
+     * x, y, scale and angle velocities, per second, into out. The scale
+     * velocity is of the log of the scale, so that it compounds.
+     *
+     * @return false, with zero velocities, if there are not enough recent
+     * samples, e.g. because the finger rested before being lifted
+     */
+    public boolean computeVelocity(long time, long windowMillis, float[] out) {
+        out[0] = out[1] = out[2] = out[3] = 0.0f;
+        if (size < 2 || time - times[head] > windowMillis / 2) {
+            return false;
+        }
+        int oldest = head;
+        for (int i = 1; i < size; i++) {
+            int index = (head - i + CAPACITY) % CAPACITY;
+            if (times[head] - times[index] > windowMillis) {
+                break;
+            }
+            oldest = index;
+        }
+        long span = times[head] - times[oldest];
+        if (span <= 0) {
+            return false;
+        }
+        float perSecond = 1000.0f / span;
+        out[0] = (xs[head] - xs[oldest]) * perSecond;
+        out[1] = (ys[head] - ys[oldest]) * perSecond;
+        if (scales[head] > 0 && scales[oldest] > 0) {
+            out[2] = (float) Math.log(scales[head] / scales[oldest]) * perSecond;
+        }
+        float angleDelta = angles[head] - angles[oldest];
+        if (angleDelta > Math.PI) {
+            angleDelta -= 2 * Math.PI;
+        } else if (angleDelta < -Math.PI) {
+            angleDelta += 2 * Math.PI;
+        }
+        out[3] = angleDelta * perSecond;
+        return true;
+    }
+
+    /** Lerp from sample a (t = 0) to sample b (t = 1), t > 1 extrapolates */
+    private void blend(int a, int b, float t, PositionAndScale out) {
+        float scale = lerp(scales[a], scales[b], t);
+        float scaleX = lerp(scaleXs[a], scaleXs[b], t);
+        float scaleY = lerp(scaleYs[a], scaleYs[b], t);
+        if (scale <= 0 || scaleX <= 0 || scaleY <= 0) {
+            // Shrinking too fast to extrapolate, stay at the newest scale
+            scale = scales[b];
+            scaleX = scaleXs[b];
+            scaleY = scaleYs[b];
+        }
+        // Angles come from atan2() and may wrap, blend along the short way round
+        float angleDelta = angles[b] - angles[a];
+        if (angleDelta > Math.PI) {
+            angleDelta -= 2 * Math.PI;
+        } else if (angleDelta < -Math.PI) {
+            angleDelta += 2 * Math.PI;
+        }
+        out.set(lerp(xs[a], xs[b], t), lerp(ys[a], ys[b], t), scale, scaleX, scaleY,
+            angles[a] + angleDelta * t);
+    }
+
+    private void write(int index, PositionAndScale out) {
+        out.set(xs[index], ys[index], scales[index], scaleXs[index], scaleYs[index],
+            angles[index]);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+}
@@ -0,0 +1,109 @@
+package com.munon.turboimageview;
+
+import android.util.Log;
+import android.view.MotionEvent;
+import java.lang.reflect.Method;
+
+/**
+ * Legacy TouchSource that looks up the multitouch MotionEvent methods through
+ * reflection, for pre-2.0 devices. Every call boxes its result, so only use it
+ * if DirectTouchSource is not an option.
+ */
+public class ReflectiveTouchSource implements TouchSource {
+    private static final String TAG = "ReflectiveTouchSource";
+
+    private static final boolean multiTouchSupported;
+    private static Method m_getPointerCount;
+    private static Method m_getPointerId;
+    private static Method m_getPressure;
+    private static Method m_getHistoricalX;
+    private static Method m_getHistoricalY;
+    private static Method m_getHistoricalPressure;
+    private static Method m_getX;
+    private static Method m_getY;
+
+    static {
+        boolean succeeded = false;
+        try {
+            // Android 2.0.1 stuff:
+            m_getPointerCount = MotionEvent.class.getMethod("getPointerCount");
+            m_getPointerId = MotionEvent.class.getMethod("getPointerId", Integer.TYPE);
+            m_getPressure = MotionEvent.class.getMethod("getPressure", Integer.TYPE);
+            m_getHistoricalX = MotionEvent.class.getMethod("getHistoricalX",
+                Integer.TYPE, Integer.TYPE);
+            m_getHistoricalY = MotionEvent.class.getMethod("getHistoricalY",
+                Integer.TYPE, Integer.TYPE);
+            m_getHistoricalPressure = MotionEvent.class.
+                getMethod("getHistoricalPressure", Integer.TYPE, Integer.TYPE);
+            m_getX = MotionEvent.class.getMethod("getX", Integer.TYPE);
+            m_getY = MotionEvent.class.getMethod("getY", Integer.TYPE);
+            succeeded = true;
+        } catch (Exception e) {
+            Log.e(TAG, "static initializer failed", e);
+        }
+
+        multiTouchSupported = succeeded;
+    }
+
+    @Override
+    public int getAction(MotionEvent event) {
+        return event.getAction();
+    }
+
+    @Override
+    public int getPointerCount(MotionEvent event) {
+        if (!multiTouchSupported) {
+            return 1;
+        }
+        try {
+            return (Integer) m_getPointerCount.invoke(event);
+        } catch (Exception e) {
+            throw new IllegalStateException("getPointerCount() failed", e);
+        }
+    }
+
+    @Override
+    public int getHistorySize(MotionEvent event) {
+        return event.getHistorySize();
+    }
+
+    @Override
+    public void readPointers(MotionEvent event, int histIdx, int numPointers, float[] xs,
+                             float[] ys, float[] pressures, int[] pointerIds) {
+        boolean processingHist = histIdx != CURRENT_SAMPLE;
+        if (!multiTouchSupported || numPointers == 1) {
+            // Use single-pointer methods -- these are needed as a special
+            // case (for some weird reason) even if
+            // multitouch is supported but there's only one touch point down
+            // currently -- event.getX(0) etc. throw an exception if there's
+            // only one point down.
+            xs[0] = processingHist ? event.getHistoricalX(histIdx) : event.getX();
+            ys[0] = processingHist ? event.getHistoricalY(histIdx) : event.getY();
+            pressures[0] = processingHist
+                ? event.getHistoricalPressure(histIdx) : event.getPressure();
+            return;
+        }
+        try {
+            for (int ptrIdx = 0; ptrIdx < numPointers; ptrIdx++) {
+                pointerIds[ptrIdx] = (Integer) m_getPointerId.invoke(event, ptrIdx);
+                xs[ptrIdx] = (Float) (processingHist
+                    ? m_getHistoricalX.invoke(event, ptrIdx, histIdx)
+                    : m_getX.invoke(event, ptrIdx));
+                ys[ptrIdx] = (Float) (processingHist
+                    ? m_getHistoricalY.invoke(event, ptrIdx, histIdx)
+                    : m_getY.invoke(event, ptrIdx));
+                pressures[ptrIdx] = (Float) (processingHist
+                    ? m_getHistoricalPressure.invoke(event, ptrIdx, histIdx)
+                    : m_getPressure.invoke(event, ptrIdx));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("readPointers() failed", e);
+        }
+    }
+
+    @Override
+    public long getEventTime(MotionEvent event, int histIdx) {
+        return histIdx != CURRENT_SAMPLE ? event.getHistoricalEventTime(histIdx)
+            : event.getEventTime();
+    }
+}
@@ -0,0 +1,130 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects scene changes and applies them together on commit(): in a single
+ * pass over the objects, with a single invalidate() and a single
+ * TurboImageViewBatchListener callback. Obtained from
+ * TurboImageView.beginBatch().
+ *
+ * Removals are applied first, then transforms, flips and the border color
+ * to the remaining objects, then the additions.
+ *
+ * Every removeObjects(), transformObjects() and setFlippedHorizontally()
+ * call counts: an object is removed if any remove filter accepts it, gets
+ * every transform whose filter accepts it, in call order, and ends up with
+ * the flip of the last accepting setFlippedHorizontally() call. Only the
+ * border color is a single setting, the last call wins.
+ */
+public class SceneBatch {
+    private final TurboImageView view;
+    private final Context context;
+
+    final List<MultiTouchObject> added = new ArrayList<>();
+    final List<ObjectFilter> removeFilters = new ArrayList<>();
+    final List<Transform> transforms = new ArrayList<>();
+    final List<Flip> flips = new ArrayList<>();
+
+    boolean borderColorChanged;
+    int borderColor;
+
+    SceneBatch(TurboImageView view, Context context) {
+        this.view = view;
+        this.context = context;
+    }
+
+    public SceneBatch addObject(int resourceId) {
+        added.add(new ImageObject(resourceId, context.getResources()));
+        return this;
+    }
+
+    public SceneBatch addObject(Bitmap bitmap) {
+        added.add(new ImageObject(bitmap, context.getResources()));
+        return this;
+    }
+
+    /** Add an image decoded in the background, see TurboImageView.addObjectAsync() */
+    public SceneBatch addObject(ImageSource source) {
+        added.add(ImageObject.createPlaceholder(source, context));
+        return this;
+    }
+
+    public SceneBatch addObjects(List<? extends MultiTouchObject> objects) {
+        added.addAll(objects);
+        return this;
+    }
+
+    /** Remove every object the filter accepts */
+    public SceneBatch removeObjects(ObjectFilter filter) {
+        removeFilters.add(filter);
+        return this;
+    }
+
+    /**
+     * Move, scale and rotate every object the filter accepts, each around
+     * its own center.
+     *
+     * @param rotation Added angle, in radians.
+     */
+    public SceneBatch transformObjects(ObjectFilter filter, float translateX, float translateY,
+                                       float scaleFactor, float rotation) {
+        transforms.add(new Transform(filter, translateX, translateY, scaleFactor, rotation));
+        return this;
+    }
+
+    public SceneBatch setFlippedHorizontally(ObjectFilter filter, boolean flipped) {
+        flips.add(new Flip(filter, flipped));
+        return this;
+    }
+
+    /** Same as TurboImageView.setObjectSelectedBorderColor() */
+    public SceneBatch setObjectSelectedBorderColor(int borderColor) {
+        borderColorChanged = true;
+        this.borderColor = borderColor;
+        return this;
+    }
+
+    public void commit() {
+        view.commitBatch(this, context);
+    }
+
+    boolean isRemoved(MultiTouchObject object) {
+        for (int i = 0, n = removeFilters.size(); i < n; i++) {
+            if (removeFilters.get(i).accept(object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static final class Transform {
+        final ObjectFilter filter;
+        final float translateX;
+        final float translateY;
+        final float scaleFactor;
+        final float rotation;
+
+        Transform(ObjectFilter filter, float translateX, float translateY,
+                  float scaleFactor, float rotation) {
+            this.filter = filter;
+            this.translateX = translateX;
+            this.translateY = translateY;
+            this.scaleFactor = scaleFactor;
+            this.rotation = rotation;
+        }
+    }
+
+    static final class Flip {
+        final ObjectFilter filter;
+        final boolean flipped;
+
+        Flip(ObjectFilter filter, boolean flipped) {
+            this.filter = filter;
+            this.flipped = flipped;
+        }
+    }
+}
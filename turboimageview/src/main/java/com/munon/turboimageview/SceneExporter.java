@@ -0,0 +1,210 @@
+package com.munon.turboimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a scene at any scale into a PNG, in horizontal strips that are
+ * drawn in parallel and streamed out in order. At most STRIPS_IN_FLIGHT
+ * strips are held at once, in buffers reused from strip to strip, so a print
+ * sized export does not need a bitmap of the whole image and its peak memory
+ * does not grow with the number of cores.
+ * Created on the main thread by TurboImageView.createExporter(); export()
+ * can then run on any thread, as long as the objects are not changed meanwhile.
+ */
+public class SceneExporter {
+    private static final int DEFAULT_STRIP_HEIGHT = 256;
+
+    /** Strips rendering or waiting to be written, each with its own bitmap and pixels */
+    private static final int STRIPS_IN_FLIGHT = 3;
+
+    private final List<MultiTouchObject> objects;
+    private final float scale;
+    private final float sceneLeft;
+    private final float sceneTop;
+    private final int width;
+    private final int height;
+    private int stripHeight = DEFAULT_STRIP_HEIGHT;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param objects The objects to draw, back to front.
+     * @param sceneWidth Width of the scene in view pixels.
+     * @param sceneHeight Height of the scene in view pixels.
+     * @param scale Output pixels per view pixel.
+     */
+    public SceneExporter(List<MultiTouchObject> objects, int sceneWidth, int sceneHeight,
+                         float scale) {
+        this(objects, 0, 0, sceneWidth, sceneHeight, scale);
+    }
+
+    /**
+     * @param objects The objects to draw, back to front.
+     * @param sceneLeft Left edge of the exported area, in scene coords.
+     * @param sceneTop Top edge of the exported area, in scene coords.
+     * @param sceneWidth Width of the exported area, in scene coords.
+     * @param sceneHeight Height of the exported area, in scene coords.
+     * @param scale Output pixels per scene unit.
+     */
+    public SceneExporter(List<MultiTouchObject> objects, float sceneLeft, float sceneTop,
+                         float sceneWidth, float sceneHeight, float scale) {
+        this.objects = new ArrayList<>(objects);
+        this.scale = scale;
+        this.sceneLeft = sceneLeft;
+        this.sceneTop = sceneTop;
+        this.width = Math.max(1, Math.round(sceneWidth * scale));
+        this.height = Math.max(1, Math.round(sceneHeight * scale));
+    }
+
+    public void setStripHeight(int stripHeight) {
+        this.stripHeight = stripHeight;
+    }
+
+    /** Threads rendering strips, at most STRIPS_IN_FLIGHT are used. Default: the core count */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void export(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            export(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Render and write the PNG. Blocks until done, so don't call it on the main thread */
+    public void export(OutputStream out) throws IOException {
+        PngStreamWriter writer = new PngStreamWriter(out, width, height);
+        int stripCount = (height + stripHeight - 1) / stripHeight;
+        int bufferRows = Math.min(stripHeight, height);
+        int window = Math.min(STRIPS_IN_FLIGHT, stripCount);
+
+        // Only touched by this thread: a buffer goes to a renderer when its
+        // strip is submitted and comes back once the strip is written
+        ArrayDeque<StripBuffer> free = new ArrayDeque<>(window);
+        List<StripBuffer> buffers = new ArrayList<>(window);
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, window)));
+        ArrayDeque<Future<StripBuffer>> pending = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < window; i++) {
+                StripBuffer buffer = new StripBuffer(width, bufferRows);
+                buffers.add(buffer);
+                free.add(buffer);
+            }
+            int next = 0;
+            for (int strip = 0; strip < stripCount; strip++) {
+                while (next < stripCount && !free.isEmpty()) {
+                    pending.add(executor.submit(new StripRenderer(next++, free.poll())));
+                }
+                int rows = Math.min(stripHeight, height - strip * stripHeight);
+                StripBuffer buffer = pending.poll().get();
+                writer.writeRows(buffer.pixels, width, rows);
+                free.add(buffer);
+            }
+            writer.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to render the scene", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (awaitTermination(executor)) {
+                for (StripBuffer buffer : buffers) {
+                    buffer.bitmap.recycle();
+                }
+            }
+        }
+    }
+
+    /** Wait for renderers still drawing after a failure, so their bitmaps can be recycled */
+    private static boolean awaitTermination(ExecutorService executor) {
+        try {
+            return executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** A strip sized bitmap and the pixels read back from it */
+    private static final class StripBuffer {
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final int[] pixels;
+        final RectF bounds = new RectF();
+
+        StripBuffer(int width, int rows) {
+            bitmap = Bitmap.createBitmap(width, rows, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            pixels = new int[width * rows];
+        }
+    }
+
+    /** Draws the objects that overlap one strip into a buffer and reads its pixels */
+    private class StripRenderer implements Callable<StripBuffer> {
+        private final int strip;
+        private final StripBuffer buffer;
+
+        StripRenderer(int strip, StripBuffer buffer) {
+            this.strip = strip;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public StripBuffer call() {
+            int top = strip * stripHeight;
+            int rows = Math.min(stripHeight, height - top);
+            buffer.bitmap.eraseColor(Color.TRANSPARENT);
+            Canvas canvas = buffer.canvas;
+            int saveCount = canvas.save();
+            try {
+                canvas.translate(0, -top);
+                canvas.scale(scale, scale);
+                canvas.translate(-sceneLeft, -sceneTop);
+
+                // Strip bounds in scene coords
+                float stripTop = sceneTop + top / scale;
+                float stripBottom = sceneTop + (top + rows) / scale;
+                RectF bounds = buffer.bounds;
+                for (MultiTouchObject object : objects) {
+                    object.getBounds(bounds);
+                    if (bounds.bottom >= stripTop && bounds.top <= stripBottom) {
+                        object.drawContent(canvas, scale);
+                    }
+                }
+            } finally {
+                canvas.restoreToCount(saveCount);
+            }
+            buffer.bitmap.getPixels(buffer.pixels, 0, width, 0, 0, width, rows);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact, versioned binary format for a TurboImageView scene. Each object is
+ * stored as a reference to where its image comes from plus its transform, flip,
+ * selection and border state, never as pixels, so saving and restoring does not
+ * depend on image sizes. Objects created from a raw Bitmap or Drawable have no
+ * such reference and are left out.
+ *
+ * <pre>
+ * int   MAGIC
+ * short VERSION
+ * int   object count
+ * per object, back to front:
+ *   byte  kind (KIND_*)
+ *   source (see ImageSource.writeTo())
+ *   int   width, height  (in source pixels)
+ *   float centerX, centerY, scaleX, scaleY, angle
+ *   byte  flags (FLAG_*)
+ *   int   border color
+ * </pre>
+ */
+public final class SceneSnapshot {
+    private static final int MAGIC = 0x54495653; // "TIVS"
+    private static final int VERSION = 1;
+
+    private static final int KIND_IMAGE = 0;
+    private static final int KIND_RESOURCE_DRAWABLE = 1;
+    private static final int KIND_TILED = 2;
+
+    private static final int FLAG_FLIPPED = 1;
+    private static final int FLAG_SELECTED = 1 << 1;
+
+    private SceneSnapshot() {
+    }
+
+    /**
+     * Write the objects, back to front.
+     *
+     * @return the number of objects written
+     */
+    public static int write(List<MultiTouchObject> objects, DataOutputStream out)
+        throws IOException {
+        int count = 0;
+        for (MultiTouchObject object : objects) {
+            if (kindOf(object) >= 0) {
+                count++;
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(count);
+        for (MultiTouchObject object : objects) {
+            int kind = kindOf(object);
+            if (kind < 0) {
+                continue;
+            }
+            out.writeByte(kind);
+            switch (kind) {
+                case KIND_IMAGE:
+                    ((ImageObject) object).getSource().writeTo(out);
+                    break;
+                case KIND_RESOURCE_DRAWABLE:
+                    out.writeInt(((ImageObject) object).getResourceId());
+                    break;
+                default:
+                    ((TiledImageObject) object).getSource().writeTo(out);
+                    break;
+            }
+            out.writeInt(object.getWidth());
+            out.writeInt(object.getHeight());
+            out.writeFloat(object.getCenterX());
+            out.writeFloat(object.getCenterY());
+            out.writeFloat(object.getScaleX());
+            out.writeFloat(object.getScaleY());
+            out.writeFloat(object.getAngle());
+            out.writeByte((object.isFlippedHorizontally() ? FLAG_FLIPPED : 0)
+                | (object.isSelected() ? FLAG_SELECTED : 0));
+            out.writeInt(object.getBorderColor());
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Read back the objects written by write(), back to front, in their
+     * saved state. They still have to be init()ed to be shown. Nothing is
+     * read or decoded here: every kind of image is decoded in the background
+     * once init()ed, placeholders of the saved size are shown meanwhile.
+     */
+    public static List<MultiTouchObject> read(Context context, DataInputStream in)
+        throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a scene snapshot");
+        }
+        int version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported scene snapshot version " + version);
+        }
+        int count = in.readInt();
+        List<MultiTouchObject> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int kind = in.readByte();
+            ImageSource source = null;
+            int resourceId = 0;
+            if (kind == KIND_RESOURCE_DRAWABLE) {
+                resourceId = in.readInt();
+            } else {
+                source = ImageSource.readFrom(in);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+
+            MultiTouchObject object;
+            switch (kind) {
+                case KIND_IMAGE:
+                    object = ImageObject.createPlaceholder(source, context, width, height);
+                    break;
+                case KIND_RESOURCE_DRAWABLE:
+                    object = ImageObject.createPlaceholder(resourceId, context, width, height);
+                    break;
+                case KIND_TILED:
+                    object = new TiledImageObject(source, context, width, height);
+                    break;
+                default:
+                    throw new IOException("Unknown object kind " + kind);
+            }
+
+            float centerX = in.readFloat();
+            float centerY = in.readFloat();
+            float scaleX = in.readFloat();
+            float scaleY = in.readFloat();
+            float angle = in.readFloat();
+            int flags = in.readByte();
+            int borderColor = in.readInt();
+            object.restoreState(centerX, centerY, scaleX, scaleY, angle,
+                (flags & FLAG_FLIPPED) != 0, (flags & FLAG_SELECTED) != 0, borderColor);
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    /** @return the KIND_* the object is saved as, or -1 if it can't be */
+    private static int kindOf(MultiTouchObject object) {
+        if (object instanceof ImageObject) {
+            ImageObject imageObject = (ImageObject) object;
+            // A restored resource drawable has a source too, to be decoded from
+            if (imageObject.getResourceId() != 0) {
+                return KIND_RESOURCE_DRAWABLE;
+            }
+            return imageObject.getSource() != null ? KIND_IMAGE : -1;
+        }
+        return object instanceof TiledImageObject ? KIND_TILED : -1;
+    }
+}
@@ -0,0 +1,179 @@
+package com.munon.turboimageview;
+
+import java.util.Arrays;
+
+/**
+ * Transforms and bounds of a scene kept in parallel primitive arrays, one
+ * slot per object, so that culling is a linear pass over a few float arrays
+ * instead of a walk over scattered objects. The objects stay the source of
+ * truth; their holder copies each change in with set().
+ */
+public class SceneStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private float[] centerX;
+    private float[] centerY;
+    private float[] cos;
+    private float[] sin;
+    private float[] halfWidth;
+    private float[] halfHeight;
+
+    /** Axis-aligned bounds of the rotated object, grown by its outset */
+    private float[] left;
+    private float[] top;
+    private float[] right;
+    private float[] bottom;
+
+    private boolean[] used;
+    private boolean[] visible;
+
+    private int[] freeSlots;
+    private int freeCount;
+
+    /** One past the highest slot ever handed out, bounds every scan */
+    private int slotLimit;
+    private int size;
+
+    public SceneStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SceneStore(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        centerX = new float[capacity];
+        centerY = new float[capacity];
+        cos = new float[capacity];
+        sin = new float[capacity];
+        halfWidth = new float[capacity];
+        halfHeight = new float[capacity];
+        left = new float[capacity];
+        top = new float[capacity];
+        right = new float[capacity];
+        bottom = new float[capacity];
+        used = new boolean[capacity];
+        visible = new boolean[capacity];
+        freeSlots = new int[capacity];
+    }
+
+    /** Reserve a slot for a new object */
+    public int allocate() {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotLimit == used.length) {
+                grow();
+            }
+            slot = slotLimit++;
+        }
+        used[slot] = true;
+        visible[slot] = false;
+        size++;
+        return slot;
+    }
+
+    /** Give a slot back, it may be handed out again by allocate() */
+    public void free(int slot) {
+        if (!used[slot]) {
+            throw new IllegalArgumentException("Slot " + slot + " is not allocated");
+        }
+        used[slot] = false;
+        visible[slot] = false;
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    /** Free all slots */
+    public void clear() {
+        Arrays.fill(used, 0, slotLimit, false);
+        Arrays.fill(visible, 0, slotLimit, false);
+        freeCount = 0;
+        slotLimit = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Store an object's transform: its center, half extents along its own
+     * axes, rotation and how far its drawing reaches past its extents
+     */
+    public void set(int slot, float centerX, float centerY, float halfWidth, float halfHeight,
+                    float cos, float sin, float outset) {
+        this.centerX[slot] = centerX;
+        this.centerY[slot] = centerY;
+        this.halfWidth[slot] = halfWidth;
+        this.halfHeight[slot] = halfHeight;
+        this.cos[slot] = cos;
+        this.sin[slot] = sin;
+
+        float absCos = Math.abs(cos);
+        float absSin = Math.abs(sin);
+        float extentX = absCos * halfWidth + absSin * halfHeight + outset;
+        float extentY = absSin * halfWidth + absCos * halfHeight + outset;
+        left[slot] = centerX - extentX;
+        top[slot] = centerY - extentY;
+        right[slot] = centerX + extentX;
+        bottom[slot] = centerY + extentY;
+    }
+
+    /** Return whether the point is inside the rotated object in the slot */
+    public boolean containsPoint(int slot, float x, float y) {
+        float dx = x - centerX[slot];
+        float dy = y - centerY[slot];
+        float c = cos[slot];
+        float s = sin[slot];
+        return Math.abs(dx * c + dy * s) <= halfWidth[slot]
+            && Math.abs(dy * c - dx * s) <= halfHeight[slot];
+    }
+
+    /**
+     * Flag the slots whose bounds intersect the given rect as visible, and
+     * clear the flag of all others. Read the result with isVisible().
+     *
+     * @return the number of visible slots
+     */
+    public int cull(float clipLeft, float clipTop, float clipRight, float clipBottom) {
+        final float[] left = this.left;
+        final float[] top = this.top;
+        final float[] right = this.right;
+        final float[] bottom = this.bottom;
+        final boolean[] used = this.used;
+        final boolean[] visible = this.visible;
+        int count = 0;
+        for (int i = 0, n = slotLimit; i < n; i++) {
+            boolean v = used[i]
+                && left[i] < clipRight && right[i] > clipLeft
+                && top[i] < clipBottom && bottom[i] > clipTop;
+            visible[i] = v;
+            if (v) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Whether the slot intersected the rect of the last cull() */
+    public boolean isVisible(int slot) {
+        return visible[slot];
+    }
+
+    private void grow() {
+        int capacity = used.length * 2;
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        cos = Arrays.copyOf(cos, capacity);
+        sin = Arrays.copyOf(sin, capacity);
+        halfWidth = Arrays.copyOf(halfWidth, capacity);
+        halfHeight = Arrays.copyOf(halfHeight, capacity);
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        right = Arrays.copyOf(right, capacity);
+        bottom = Arrays.copyOf(bottom, capacity);
+        used = Arrays.copyOf(used, capacity);
+        visible = Arrays.copyOf(visible, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+}
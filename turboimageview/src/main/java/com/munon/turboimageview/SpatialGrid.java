@@ -0,0 +1,188 @@
+package com.munon.turboimageview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * A hashed uniform grid of axis-aligned bounding boxes, used to find the
+ * objects that may be under a touch point without scanning the whole scene.
+ * Each item is stored in every cell its bounds overlap; items that overlap
+ * too many cells are kept in a separate list that is always returned.
+ * Queries return candidates only, callers still have to test the exact shape.
+ */
+public class SpatialGrid<T> {
+    private static final float DEFAULT_CELL_SIZE = 128.0f;
+    private static final int DEFAULT_BUCKET_COUNT = 1024;
+    private static final int MAX_CELLS_PER_ITEM = 64;
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    private final float cellSize;
+    private final int bucketMask;
+    private final Object[][] buckets;
+    private final int[] bucketSizes;
+
+    private final IdentityHashMap<T, Entry> entries = new IdentityHashMap<>();
+    private final ArrayList<T> oversized = new ArrayList<>();
+
+    /** Cell range an item is currently registered in */
+    private static class Entry {
+        int minCol;
+        int minRow;
+        int maxCol;
+        int maxRow;
+        boolean oversized;
+    }
+
+    public SpatialGrid() {
+        this(DEFAULT_CELL_SIZE, DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * @param cellSize Side of a grid cell, in the same units as the bounds.
+     * @param bucketCount Number of hash buckets, rounded up to a power of two.
+     */
+    public SpatialGrid(float cellSize, int bucketCount) {
+        this.cellSize = cellSize;
+        int count = Integer.highestOneBit(Math.max(bucketCount, 1) - 1) << 1;
+        if (count <= 0) {
+            count = 1;
+        }
+        this.bucketMask = count - 1;
+        this.buckets = new Object[count][];
+        this.bucketSizes = new int[count];
+    }
+
+    /**
+     * Insert an item, or move it if its bounds changed. Nothing is done if
+     * the item still covers the same cells.
+     */
+    public void update(T item, float minX, float minY, float maxX, float maxY) {
+        int minCol = cell(Math.min(minX, maxX));
+        int minRow = cell(Math.min(minY, maxY));
+        int maxCol = cell(Math.max(minX, maxX));
+        int maxRow = cell(Math.max(minY, maxY));
+        boolean isOversized = (long) (maxCol - minCol + 1) * (maxRow - minRow + 1)
+            > MAX_CELLS_PER_ITEM;
+
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(item, entry);
+        } else if (entry.oversized == isOversized && (isOversized ||
+            (entry.minCol == minCol && entry.minRow == minRow
+                && entry.maxCol == maxCol && entry.maxRow == maxRow))) {
+            return;
+        } else {
+            unlink(item, entry);
+        }
+
+        entry.minCol = minCol;
+        entry.minRow = minRow;
+        entry.maxCol = maxCol;
+        entry.maxRow = maxRow;
+        entry.oversized = isOversized;
+        if (isOversized) {
+            oversized.add(item);
+        } else {
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    addToBucket(bucket(col, row), item);
+                }
+            }
+        }
+    }
+
+    public void remove(T item) {
+        Entry entry = entries.remove(item);
+        if (entry != null) {
+            unlink(item, entry);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        oversized.clear();
+        for (int i = 0; i < buckets.length; i++) {
+            if (bucketSizes[i] > 0) {
+                Arrays.fill(buckets[i], 0, bucketSizes[i], null);
+                bucketSizes[i] = 0;
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Append every item that may contain the given point to out. Does not
+     * allocate once out has grown to the usual candidate count.
+     *
+     * @return the number of candidates appended
+     */
+    @SuppressWarnings("unchecked")
+    public int query(float x, float y, ArrayList<T> out) {
+        int b = bucket(cell(x), cell(y));
+        Object[] items = buckets[b];
+        int count = bucketSizes[b];
+        for (int i = 0; i < count; i++) {
+            out.add((T) items[i]);
+        }
+        for (int i = 0, n = oversized.size(); i < n; i++) {
+            out.add(oversized.get(i));
+        }
+        return count + oversized.size();
+    }
+
+    private void unlink(T item, Entry entry) {
+        if (entry.oversized) {
+            oversized.remove(item);
+            return;
+        }
+        for (int row = entry.minRow; row <= entry.maxRow; row++) {
+            for (int col = entry.minCol; col <= entry.maxCol; col++) {
+                removeFromBucket(bucket(col, row), item);
+            }
+        }
+    }
+
+    private void addToBucket(int b, Object item) {
+        Object[] items = buckets[b];
+        int count = bucketSizes[b];
+        // Several cells of the same item can hash to the same bucket
+        for (int i = 0; i < count; i++) {
+            if (items[i] == item) {
+                return;
+            }
+        }
+        if (items == null) {
+            items = buckets[b] = new Object[INITIAL_BUCKET_CAPACITY];
+        } else if (count == items.length) {
+            items = buckets[b] = Arrays.copyOf(items, count * 2);
+        }
+        items[count] = item;
+        bucketSizes[b] = count + 1;
+    }
+
+    private void removeFromBucket(int b, Object item) {
+        Object[] items = buckets[b];
+        int count = bucketSizes[b];
+        for (int i = 0; i < count; i++) {
+            if (items[i] == item) {
+                items[i] = items[count - 1];
+                items[count - 1] = null;
+                bucketSizes[b] = count - 1;
+                return;
+            }
+        }
+    }
+
+    private int cell(float coord) {
+        return (int) Math.floor(coord / cellSize);
+    }
+
+    private int bucket(int col, int row) {
+        return ((col * 73856093) ^ (row * 19349663)) & bucketMask;
+    }
+}
@@ -0,0 +1,518 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.DashPathEffect;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An image object for pictures too large to keep in memory as one bitmap.
+ * A coarse base layer of the whole image is always drawn; on top of it,
+ * tiles of the part that is actually on screen are decoded in the background
+ * with BitmapRegionDecoder, at the sample level that matches the zoom. At most
+ * MAX_TILES tiles are kept, so memory use does not depend on the image size.
+ * The decoder is opened and the base layer decoded in the background too; a
+ * placeholder is drawn until then.
+ */
+public class TiledImageObject extends MultiTouchObject {
+    private static final String TAG = "TiledImageObject";
+    private static final double INITIAL_SCALE_FACTOR = 0.15;
+    private static final int PLACEHOLDER_COLOR = Color.LTGRAY;
+
+    /** Longest side of the base layer bitmap */
+    private static final int BASE_LAYER_SIZE = 1024;
+    /** Side of a tile bitmap, whatever its sample level */
+    private static final int TILE_SIZE = 256;
+    private static final int MAX_TILES = 48;
+    private static final int MAX_TILES_LOADING = 4;
+
+    private static final int TILE_EMPTY = 0;
+    private static final int TILE_LOADING = 1;
+    private static final int TILE_READY = 2;
+
+    private final ImageSource source;
+    private transient Context appContext;
+    private int baseSampleSize;
+
+    /** Null until loaded in the background, and after unload() */
+    private transient volatile Decoded decoded;
+    private transient boolean loading;
+    /** Bumped by unload(), so that a late load result is dropped */
+    private transient int loadGeneration;
+
+    private final transient Tile[] tiles = new Tile[MAX_TILES];
+    private transient int tilesLoading;
+    private transient long frame;
+
+    private final transient Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final transient Rect clipBounds = new Rect();
+    private final transient RectF tileRect = new RectF();
+
+    /**
+     * The region decoder and the base layer. Exports on other threads hold a
+     * reference while they draw, so unload() only recycles them once the
+     * last export is done with them.
+     */
+    private static final class Decoded {
+        final BitmapRegionDecoder decoder;
+        final Bitmap baseLayer;
+        private int users;
+        private boolean released;
+
+        Decoded(BitmapRegionDecoder decoder, Bitmap baseLayer) {
+            this.decoder = decoder;
+            this.baseLayer = baseLayer;
+        }
+
+        /** @return false if already released, in which case nothing may be used */
+        synchronized boolean acquire() {
+            if (released) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+
+        synchronized void release() {
+            if (--users == 0 && released) {
+                recycle();
+            }
+        }
+
+        /** Called by the object itself when it lets go, e.g. on unload() */
+        synchronized void releaseOwner() {
+            released = true;
+            if (users == 0) {
+                recycle();
+            }
+        }
+
+        private void recycle() {
+            baseLayer.recycle();
+            // Tiles decode under the decoder's lock
+            synchronized (decoder) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    /** A cache slot holding one decoded region */
+    private static class Tile {
+        int state = TILE_EMPTY;
+        int sampleSize;
+        int col;
+        int row;
+        Bitmap bitmap;
+        long lastUsedFrame;
+        /** Bumped on eviction, so that late results for the old tile are dropped */
+        int generation;
+    }
+
+    /**
+     * Only the image size is read here, the image is decoded in the
+     * background once the object is init()ed.
+     *
+     * @throws IllegalArgumentException if the source can not be read
+     */
+    public TiledImageObject(ImageSource source, Context context) {
+        this(source, context, readBounds(source, context));
+    }
+
+    private TiledImageObject(ImageSource source, Context context,
+                             BitmapFactory.Options bounds) {
+        this(source, context, bounds.outWidth, bounds.outHeight);
+    }
+
+    /** For an image whose size is already known, e.g. when restoring a saved scene */
+    TiledImageObject(ImageSource source, Context context, int width, int height) {
+        super(context.getResources());
+        this.source = source;
+        this.appContext = context.getApplicationContext();
+        for (int i = 0; i < MAX_TILES; i++) {
+            tiles[i] = new Tile();
+        }
+        this.width = width;
+        this.height = height;
+        baseSampleSize = ImageSource.calculateSampleSize(width, height, BASE_LAYER_SIZE);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(PLACEHOLDER_COLOR);
+        initPaint();
+    }
+
+    private static BitmapFactory.Options readBounds(ImageSource source, Context context) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (!source.decodeBounds(context, options)) {
+            throw new IllegalArgumentException("Unable to read " + source);
+        }
+        return options;
+    }
+
+    public void initPaint() {
+        borderPaint.setStyle(Paint.Style.STROKE);
+        borderPaint.setColor(borderColor);
+        borderPaint.setAntiAlias(true);
+        borderPaint.setStrokeWidth(3.0f);
+        borderPaint.setPathEffect(new DashPathEffect(new float[]{10, 20}, 0));
+    }
+
+    /** Open the decoder and decode the base layer on the loader threads */
+    private void loadAsync() {
+        loading = true;
+        final int generation = loadGeneration;
+        final Context context = appContext;
+        final ImageLoader loader = ImageLoader.getInstance();
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                Decoded result = null;
+                try {
+                    result = open(context);
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    Log.w(TAG, "Unable to decode " + source, e);
+                }
+                final Decoded loaded = result;
+                loader.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(generation, loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    private Decoded open(Context context) throws IOException {
+        BitmapRegionDecoder regionDecoder;
+        InputStream inputStream = source.open(context);
+        try {
+            regionDecoder = BitmapRegionDecoder.newInstance(inputStream, false);
+        } finally {
+            inputStream.close();
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = baseSampleSize;
+        Bitmap baseLayer = regionDecoder.decodeRegion(new Rect(0, 0, width, height), options);
+        if (baseLayer == null) {
+            regionDecoder.recycle();
+            throw new IOException("Unable to decode the base layer");
+        }
+        return new Decoded(regionDecoder, baseLayer);
+    }
+
+    private void onLoaded(int generation, Decoded loaded) {
+        if (generation != loadGeneration) {
+            // Unloaded in the meantime
+            if (loaded != null) {
+                loaded.releaseOwner();
+            }
+            return;
+        }
+        loading = false;
+        if (loaded != null) {
+            decoded = loaded;
+            invalidateSelf();
+        }
+    }
+
+    public void draw(Canvas canvas) {
+        draw(canvas, 1.0f);
+    }
+
+    @Override
+    public void draw(Canvas canvas, float canvasScale) {
+        canvas.save();
+        canvas.concat(matrix);
+
+        tileRect.set(minX, minY, maxX, maxY);
+        Decoded current = decoded;
+        if (current != null) {
+            canvas.drawBitmap(current.baseLayer, null, tileRect, bitmapPaint);
+            drawTiles(canvas, canvasScale, current.decoder);
+        } else {
+            // Still loading
+            canvas.drawRect(tileRect, paint);
+        }
+
+        if (isLatestSelected) {
+            canvas.drawRect((int) minX, (int) minY, (int) maxX, (int) maxY, borderPaint);
+        }
+
+        canvas.restore();
+    }
+
+    @Override
+    public void drawContent(Canvas canvas) {
+        drawContent(canvas, 1.0f);
+    }
+
+    /**
+     * Decode the visible part of the image at the resolution the canvas needs
+     * right away, instead of drawing from (and changing) the tile cache.
+     */
+    @Override
+    public void drawContent(Canvas canvas, float canvasScale) {
+        Decoded current = decoded;
+        if (current == null || !current.acquire()) {
+            // Not loaded, or unloaded while exporting
+            return;
+        }
+        canvas.save();
+        try {
+            canvas.concat(matrix);
+            RectF dst = new RectF(minX, minY, maxX, maxY);
+            canvas.drawBitmap(current.baseLayer, null, dst, bitmapPaint);
+
+            Rect clip = new Rect();
+            if (canvas.getClipBounds(clip)) {
+                // Total scale from image pixels to canvas pixels
+                float scale = (maxX - minX) / width;
+                int sampleSize = 1;
+                while (sampleSize * 2 * scale * canvasScale <= 1.0f) {
+                    sampleSize *= 2;
+                }
+                Rect region = new Rect(
+                    Math.max(0, (int) ((clip.left - minX) / scale)),
+                    Math.max(0, (int) ((clip.top - minY) / scale)),
+                    Math.min(width, (int) Math.ceil((clip.right - minX) / scale)),
+                    Math.min(height, (int) Math.ceil((clip.bottom - minY) / scale)));
+                if (sampleSize < baseSampleSize && region.left < region.right
+                    && region.top < region.bottom) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    Bitmap bitmap;
+                    synchronized (current.decoder) {
+                        bitmap = current.decoder.decodeRegion(region, options);
+                    }
+                    if (bitmap != null) {
+                        dst.set(minX + region.left * scale, minY + region.top * scale,
+                            minX + region.right * scale, minY + region.bottom * scale);
+                        canvas.drawBitmap(bitmap, null, dst, bitmapPaint);
+                        bitmap.recycle();
+                    }
+                }
+            }
+        } finally {
+            canvas.restore();
+            current.release();
+        }
+    }
+
+    /** Draw the fine tiles covering the visible part, requesting missing ones */
+    private void drawTiles(Canvas canvas, float canvasScale, BitmapRegionDecoder decoder) {
+        frame++;
+        float scale = (maxX - minX) / width;
+        // The canvas may be zoomed in or out too, e.g. by the view's camera
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale * canvasScale <= 1.0f) {
+            sampleSize *= 2;
+        }
+        if (sampleSize >= baseSampleSize || !canvas.getClipBounds(clipBounds)) {
+            // The base layer is detailed enough
+            return;
+        }
+
+        // The clip is in the object's unrotated frame, convert it to image pixels
+        int tileImageSize = TILE_SIZE * sampleSize;
+        int firstCol = Math.max(0, (int) ((clipBounds.left - minX) / scale) / tileImageSize);
+        int firstRow = Math.max(0, (int) ((clipBounds.top - minY) / scale) / tileImageSize);
+        int lastCol = Math.min((width - 1) / tileImageSize,
+            (int) ((clipBounds.right - minX) / scale) / tileImageSize);
+        int lastRow = Math.min((height - 1) / tileImageSize,
+            (int) ((clipBounds.bottom - minY) / scale) / tileImageSize);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                Tile tile = findTile(sampleSize, col, row);
+                if (tile == null) {
+                    requestTile(decoder, sampleSize, col, row);
+                } else if (tile.state == TILE_READY) {
+                    tile.lastUsedFrame = frame;
+                    float left = col * tileImageSize;
+                    float top = row * tileImageSize;
+                    tileRect.set(minX + left * scale, minY + top * scale,
+                        minX + Math.min(left + tileImageSize, width) * scale,
+                        minY + Math.min(top + tileImageSize, height) * scale);
+                    canvas.drawBitmap(tile.bitmap, null, tileRect, bitmapPaint);
+                } else {
+                    tile.lastUsedFrame = frame;
+                }
+            }
+        }
+    }
+
+    private Tile findTile(int sampleSize, int col, int row) {
+        for (Tile tile : tiles) {
+            if (tile.state != TILE_EMPTY && tile.sampleSize == sampleSize
+                && tile.col == col && tile.row == row) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    private void requestTile(final BitmapRegionDecoder tileDecoder, final int sampleSize,
+                             int col, int row) {
+        if (tilesLoading >= MAX_TILES_LOADING) {
+            // Asked again on the next frame, which loaded tiles trigger
+            return;
+        }
+        final Tile tile = evictTile();
+        if (tile == null) {
+            return;
+        }
+        tile.state = TILE_LOADING;
+        tile.sampleSize = sampleSize;
+        tile.col = col;
+        tile.row = row;
+        tile.lastUsedFrame = frame;
+        tilesLoading++;
+
+        final int tileImageSize = TILE_SIZE * sampleSize;
+        final Rect region = new Rect(col * tileImageSize, row * tileImageSize,
+            Math.min((col + 1) * tileImageSize, width),
+            Math.min((row + 1) * tileImageSize, height));
+        final int generation = tile.generation;
+        final ImageLoader loader = ImageLoader.getInstance();
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                synchronized (tileDecoder) {
+                    if (!tileDecoder.isRecycled()) {
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inSampleSize = sampleSize;
+                        bitmap = tileDecoder.decodeRegion(region, options);
+                    }
+                }
+                final Bitmap result = bitmap;
+                loader.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileLoaded(tile, generation, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onTileLoaded(Tile tile, int generation, Bitmap bitmap) {
+        if (tile.generation != generation) {
+            // Evicted or unloaded in the meantime
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            return;
+        }
+        tilesLoading--;
+        if (bitmap == null) {
+            Log.w(TAG, "Unable to decode a tile of " + source);
+            tile.state = TILE_EMPTY;
+            return;
+        }
+        tile.bitmap = bitmap;
+        tile.state = TILE_READY;
+        invalidateSelf();
+    }
+
+    /**
+     * Free the least recently drawn tile slot, skipping slots still loading
+     * and the ones used by the current frame.
+     */
+    private Tile evictTile() {
+        Tile oldest = null;
+        for (Tile tile : tiles) {
+            if (tile.state == TILE_EMPTY) {
+                return tile;
+            }
+            if (tile.state == TILE_READY && tile.lastUsedFrame != frame
+                && (oldest == null || tile.lastUsedFrame < oldest.lastUsedFrame)) {
+                oldest = tile;
+            }
+        }
+        if (oldest != null) {
+            clearTile(oldest);
+        }
+        return oldest;
+    }
+
+    private void clearTile(Tile tile) {
+        if (tile.state == TILE_LOADING) {
+            tilesLoading--;
+        }
+        if (tile.bitmap != null) {
+            tile.bitmap.recycle();
+            tile.bitmap = null;
+        }
+        tile.state = TILE_EMPTY;
+        tile.generation++;
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    /**
+     * Called by activity's onPause() method to free memory used for loading the images
+     */
+    @Override
+    public void unload() {
+        for (Tile tile : tiles) {
+            clearTile(tile);
+        }
+        loadGeneration++;
+        loading = false;
+        if (decoded != null) {
+            decoded.releaseOwner();
+            decoded = null;
+        }
+    }
+
+    /** Called by activity's onResume() method to init the images */
+    @Override
+    public void init(Context context, float startMidX, float startMidY) {
+        Resources res = context.getResources();
+        init(res);
+
+        this.startMidX = startMidX;
+        this.startMidY = startMidY;
+
+        if (decoded == null && !loading) {
+            appContext = context.getApplicationContext();
+            loadAsync();
+        }
+
+        float centerX;
+        float centerY;
+        float scaleX;
+        float scaleY;
+        float angle;
+        if (firstLoad) {
+            centerX = startMidX;
+            centerY = startMidY;
+
+            float scaleFactor = (float) (Math.max(displayWidth, displayHeight) /
+                (float) Math.max(width, height) * INITIAL_SCALE_FACTOR);
+            scaleX = scaleY = scaleFactor;
+            angle = 0.0f;
+
+            firstLoad = false;
+        } else {
+            centerX = this.centerX;
+            centerY = this.centerY;
+            scaleX = this.scaleX;
+            scaleY = this.scaleY;
+            angle = this.angle;
+        }
+        setPos(centerX, centerY, scaleX, scaleY, angle);
+    }
+}
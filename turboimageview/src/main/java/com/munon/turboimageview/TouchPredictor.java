@@ -0,0 +1,117 @@
+package com.munon.turboimageview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Applies a drag once per display frame instead of once per touch sample,
+ * at the pose resampled to the frame time plus a few milliseconds of
+ * prediction, so the dragged object keeps up with the finger. Needs
+ * Choreographer, so only created on Jelly Bean and up.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class TouchPredictor implements Choreographer.FrameCallback, GestureEngine.Predictor {
+
+    /** Receives the pose to show for the current frame */
+    interface PoseListener {
+        void onPose(PositionAndScale pose);
+    }
+
+    private final PoseListener listener;
+    private final PoseHistory history = new PoseHistory();
+    private final PositionAndScale pose = new PositionAndScale();
+    private Choreographer choreographer;
+    private int predictionMillis;
+    private boolean framePosted;
+
+    TouchPredictor(PoseListener listener, int predictionMillis) {
+        this.listener = listener;
+        this.predictionMillis = predictionMillis;
+    }
+
+    void setPredictionMillis(int predictionMillis) {
+        this.predictionMillis = predictionMillis;
+    }
+
+    /** Record the pose a touch sample asked for, it is shown at the next frame */
+    @Override
+    public void addSample(long eventTime, PositionAndScale sample) {
+        if (history.size() == 0) {
+            // Take over the update flags of the gesture
+            pose.set(sample.getXOff(), sample.getYOff(), sample.isUpdateScale(),
+                sample.getScale(), sample.isUpdateScaleXY(), sample.getScaleX(),
+                sample.getScaleY(), sample.isUpdateAngle(), sample.getAngle());
+        }
+        history.add(eventTime, sample);
+        postFrame();
+    }
+
+    /**
+     * Show the newest actual pose right away, without any prediction, and
+     * forget the history. Called when the gesture ends or is re-anchored, so
+     * that it never comes to rest at a predicted pose.
+     */
+    @Override
+    public void finish() {
+        if (history.size() > 0) {
+            history.getLatest(pose);
+            history.clear();
+            listener.onPose(pose);
+        }
+        cancelFrame();
+    }
+
+    /** Forget the history without showing anything */
+    @Override
+    public void cancel() {
+        history.clear();
+        cancelFrame();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        if (history.size() == 0) {
+            return;
+        }
+        // Frame times and event times are both on the uptime clock
+        long frameTime = frameTimeNanos / 1000000;
+        boolean predicted = history.resample(frameTime, predictionMillis, pose);
+        listener.onPose(pose);
+        if (predicted) {
+            // Come back to the actual pose if no new samples arrive
+            postFrame();
+        }
+    }
+
+    private void postFrame() {
+        if (!framePosted) {
+            framePosted = true;
+            scheduleFrame();
+        }
+    }
+
+    private void cancelFrame() {
+        if (framePosted) {
+            framePosted = false;
+            unscheduleFrame();
+        }
+    }
+
+    boolean isFramePosted() {
+        return framePosted;
+    }
+
+    /** Have doFrame() called at the next display frame. Tests drive the frames by hand. */
+    void scheduleFrame() {
+        if (choreographer == null) {
+            choreographer = Choreographer.getInstance();
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    void unscheduleFrame() {
+        choreographer.removeFrameCallback(this);
+    }
+}
@@ -0,0 +1,128 @@
+package com.munon.turboimageview;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Records the touch samples a GestureEngine decodes, exactly as it
+ * sees them, so a gesture can be replayed later with a TouchReplayer. The
+ * samples are packed in memory as they come in, nothing is written during
+ * the gesture; call writeTo() when done.
+ *
+ * <pre>
+ * int   MAGIC
+ * short VERSION
+ * per sample, until the end of the stream:
+ *   byte   pointer count
+ *   byte   flags (FLAG_*)
+ *   varint action
+ *   varint event time, minus the previous sample's (zig-zag encoded)
+ *   per pointer:
+ *     varint pointer id
+ *     float  x, y, pressure
+ * </pre>
+ *
+ * Varints are unsigned LEB128, 7 bits per byte, low bits first. Samples
+ * flagged FLAG_HISTORICAL are batched history, the event they belong to
+ * ends with the next sample without the flag. Version 1 recordings have no
+ * such flag, every sample is an event of its own.
+ */
+public class TouchRecorder {
+    static final int MAGIC = 0x54495654; // "TIVT"
+    static final int VERSION = 2;
+
+    static final int FLAG_DOWN = 1;
+    static final int FLAG_HISTORICAL = 2;
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    private int sampleCount;
+    private long lastEventTime;
+
+    /** Append a sample that is a whole event on its own, without history */
+    public void record(int pointerCount, float[] x, float[] y, float[] pressure,
+                       int[] pointerIds, int action, boolean down, long eventTime) {
+        record(pointerCount, x, y, pressure, pointerIds, action, down, eventTime, false);
+    }
+
+    /**
+     * Append one decoded sample, as passed to GestureEngine.onTouchSample().
+     * Only the first pointerCount entries of the arrays are read.
+     */
+    public void record(int pointerCount, float[] x, float[] y, float[] pressure,
+                       int[] pointerIds, int action, boolean down, long eventTime,
+                       boolean historical) {
+        // 2 header bytes, 5 for the action, 10 for the time, 17 per pointer at most
+        ensureCapacity(17 + 17 * pointerCount);
+        buffer[length++] = (byte) pointerCount;
+        buffer[length++] = (byte) ((down ? FLAG_DOWN : 0) | (historical ? FLAG_HISTORICAL : 0));
+        writeVarLong(action & 0xffffffffL);
+        long delta = eventTime - lastEventTime;
+        writeVarLong((delta << 1) ^ (delta >> 63));
+        lastEventTime = eventTime;
+        for (int i = 0; i < pointerCount; i++) {
+            writeVarLong(pointerIds[i] & 0xffffffffL);
+            writeFloat(x[i]);
+            writeFloat(y[i]);
+            writeFloat(pressure[i]);
+        }
+        sampleCount++;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Drop everything recorded so far */
+    public void clear() {
+        length = 0;
+        sampleCount = 0;
+        lastEventTime = 0;
+    }
+
+    public void writeTo(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.write(buffer, 0, length);
+        data.flush();
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        buffer[length++] = (byte) (bits >>> 24);
+        buffer[length++] = (byte) (bits >>> 16);
+        buffer[length++] = (byte) (bits >>> 8);
+        buffer[length++] = (byte) bits;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.munon.turboimageview;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Replays a TouchRecorder recording into a GestureEngine, sample by
+ * sample and as fast as possible, with the recorded event times and event
+ * boundaries: history samples are fed as such, and endEvent() is called
+ * after each event's current sample, as MultiTouchController does. The
+ * recording is fully decoded up front so a replay reads only flat arrays
+ * and allocates nothing.
+ *
+ * The controller reaches the same poses every time as long as its canvas
+ * starts from the same scene. Touch prediction and flings are driven by
+ * display frames rather than by the samples, so turn them off for replays.
+ */
+public class TouchReplayer {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int sampleCount;
+    private int[] pointerCounts = new int[INITIAL_CAPACITY];
+    private int[] actions = new int[INITIAL_CAPACITY];
+    private boolean[] downs = new boolean[INITIAL_CAPACITY];
+    private boolean[] historicals = new boolean[INITIAL_CAPACITY];
+    private long[] eventTimes = new long[INITIAL_CAPACITY];
+    /** Index of each sample's first pointer in the pointer arrays */
+    private int[] pointerOffsets = new int[INITIAL_CAPACITY];
+
+    private int pointerTotal;
+    private int[] pointerIds = new int[INITIAL_CAPACITY];
+    private float[] xs = new float[INITIAL_CAPACITY];
+    private float[] ys = new float[INITIAL_CAPACITY];
+    private float[] pressures = new float[INITIAL_CAPACITY];
+
+    // Scratch arrays handed to the controller, as onTouchEvent() does
+    private final float[] sampleXs = new float[PointInfo.MAX_TOUCH_POINTS];
+    private final float[] sampleYs = new float[PointInfo.MAX_TOUCH_POINTS];
+    private final float[] samplePressures = new float[PointInfo.MAX_TOUCH_POINTS];
+    private final int[] samplePointerIds = new int[PointInfo.MAX_TOUCH_POINTS];
+
+    public TouchReplayer(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public TouchReplayer(InputStream in) throws IOException {
+        read(in);
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Time between the first and the last sample, in ms */
+    public long getDuration() {
+        return sampleCount == 0 ? 0 : eventTimes[sampleCount - 1] - eventTimes[0];
+    }
+
+    /** Feed every sample to the engine, in order */
+    public void replay(GestureEngine<?> engine) {
+        replay(engine, 0, sampleCount);
+    }
+
+    /**
+     * Feed the samples in [from, to) to the engine, in order. If the range
+     * ends on a history sample its event is left open, the next replay()
+     * continues it.
+     */
+    public void replay(GestureEngine<?> engine, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int pointerCount = pointerCounts[i];
+            int offset = pointerOffsets[i];
+            System.arraycopy(xs, offset, sampleXs, 0, pointerCount);
+            System.arraycopy(ys, offset, sampleYs, 0, pointerCount);
+            System.arraycopy(pressures, offset, samplePressures, 0, pointerCount);
+            System.arraycopy(pointerIds, offset, samplePointerIds, 0, pointerCount);
+            engine.onTouchSample(pointerCount, sampleXs, sampleYs, samplePressures,
+                samplePointerIds, actions[i], downs[i], eventTimes[i], historicals[i]);
+            if (!historicals[i]) {
+                engine.endEvent();
+            }
+        }
+    }
+
+    private void read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != TouchRecorder.MAGIC) {
+            throw new IOException("Not a touch recording");
+        }
+        int version = data.readUnsignedShort();
+        if (version < 1 || version > TouchRecorder.VERSION) {
+            throw new IOException("Unsupported touch recording version " + version);
+        }
+
+        long eventTime = 0;
+        int pointerCount;
+        while ((pointerCount = data.read()) >= 0) {
+            if (pointerCount > PointInfo.MAX_TOUCH_POINTS) {
+                throw new IOException("Too many pointers: " + pointerCount);
+            }
+            ensureSampleCapacity();
+            int flags = data.readUnsignedByte();
+            int action = (int) readVarLong(data);
+            long delta = readVarLong(data);
+            eventTime += (delta >>> 1) ^ -(delta & 1);
+
+            ensurePointerCapacity(pointerCount);
+            pointerCounts[sampleCount] = pointerCount;
+            actions[sampleCount] = action;
+            downs[sampleCount] = (flags & TouchRecorder.FLAG_DOWN) != 0;
+            historicals[sampleCount] = (flags & TouchRecorder.FLAG_HISTORICAL) != 0;
+            eventTimes[sampleCount] = eventTime;
+            pointerOffsets[sampleCount] = pointerTotal;
+            for (int p = 0; p < pointerCount; p++) {
+                pointerIds[pointerTotal] = (int) readVarLong(data);
+                xs[pointerTotal] = data.readFloat();
+                ys[pointerTotal] = data.readFloat();
+                pressures[pointerTotal] = data.readFloat();
+                pointerTotal++;
+            }
+            sampleCount++;
+        }
+    }
+
+    private static long readVarLong(DataInputStream data) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void ensureSampleCapacity() {
+        if (sampleCount == pointerCounts.length) {
+            int capacity = sampleCount * 2;
+            pointerCounts = Arrays.copyOf(pointerCounts, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            downs = Arrays.copyOf(downs, capacity);
+            historicals = Arrays.copyOf(historicals, capacity);
+            eventTimes = Arrays.copyOf(eventTimes, capacity);
+            pointerOffsets = Arrays.copyOf(pointerOffsets, capacity);
+        }
+    }
+
+    private void ensurePointerCapacity(int extra) {
+        if (pointerTotal + extra > xs.length) {
+            int capacity = Math.max(xs.length * 2, pointerTotal + extra);
+            pointerIds = Arrays.copyOf(pointerIds, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            pressures = Arrays.copyOf(pressures, capacity);
+        }
+    }
+}
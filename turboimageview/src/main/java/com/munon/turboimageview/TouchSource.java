@@ -0,0 +1,35 @@
+package com.munon.turboimageview;
+
+import android.view.MotionEvent;
+
+/**
+ * Reads the pointers of a MotionEvent into the primitive buffers used by the
+ * MultiTouchController. Implementations are called once per pointer per
+ * history sample, so they must not allocate.
+ */
+public interface TouchSource {
+
+    /** Passed as histIdx to read the current (non-historical) sample */
+    int CURRENT_SAMPLE = -1;
+
+    int getAction(MotionEvent event);
+
+    int getPointerCount(MotionEvent event);
+
+    /**
+     * Number of historical samples batched into the event. Each sample holds
+     * all pointers, so this is not multiplied by the pointer count.
+     */
+    int getHistorySize(MotionEvent event);
+
+    /**
+     * Copy the first numPointers pointers of the given sample into the output
+     * arrays.
+     *
+     * @param histIdx The history index to read, or CURRENT_SAMPLE.
+     */
+    void readPointers(MotionEvent event, int histIdx, int numPointers, float[] xs, float[] ys,
+                      float[] pressures, int[] pointerIds);
+
+    long getEventTime(MotionEvent event, int histIdx);
+}
@@ -4,31 +4,102 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
-public class TurboImageView extends View implements MultiTouchObjectCanvas<MultiTouchObject> {
+public class TurboImageView extends View implements MultiTouchObjectCanvas<MultiTouchObject>,
+    MultiTouchGrabCanvas<MultiTouchObject>, MultiTouchCameraCanvas, MultiTouchObject.Callback {
     private static final String TAG = "TurboImageView";
 
-    private ArrayList<MultiTouchObject> mImages = new ArrayList<>();
+    private final ZOrderList<MultiTouchObject> mImages = new ZOrderList<>();
     private MultiTouchController<MultiTouchObject> multiTouchController = new MultiTouchController<>(
         this);
 
     private final PointInfo currTouchPoint = new PointInfo();
 
+    private final SpatialGrid<MultiTouchObject> spatialIndex = new SpatialGrid<>();
+    private final ArrayList<MultiTouchObject> hitCandidates = new ArrayList<>();
+
+    /**
+     * The selected objects, kept up to date through onSelectionChanged() so
+     * that selection queries don't have to scan the whole scene
+     */
+    private final ArrayList<MultiTouchObject> selection = new ArrayList<>();
+
+    /** Optional copy of all transforms in flat arrays, for culling large scenes */
+    private SceneStore sceneStore;
+    private final Rect clipRect = new Rect();
+    private final RectF objectBounds = new RectF();
+
+    /** Union of the screen areas that need repainting, flushed by invalidateDirty() */
+    private final RectF dirtyBounds = new RectF();
+    private final RectF movedFromBounds = new RectF();
+    private final Rect dirtyRect = new Rect();
+
+    /** The object being dragged, so its area can be repainted when dropped */
+    private MultiTouchObject draggedObject;
+
+    /** Cached rendering of the static objects while one object is dragged */
+    private final LayerCache layerCache = new LayerCache();
+    private boolean layerCachingEnabled;
+    private boolean drawingLayers;
+    /** Set while a drag that will draw from layers has not moved yet */
+    private boolean layersPending;
+
     private static final int UI_MODE_ROTATE = 1;
     private static final int UI_MODE_ANISOTROPIC_SCALE = 2;
     private static final int mUIMode = UI_MODE_ROTATE;
 
+    private static final float DEFAULT_MIN_CAMERA_ZOOM = 0.1f;
+    private static final float DEFAULT_MAX_CAMERA_ZOOM = 10.0f;
+
+    /**
+     * Camera over the scene: objects live in scene coords, which map to view
+     * coords as view = scene * cameraZoom + cameraX/Y
+     */
+    private float cameraX;
+    private float cameraY;
+    private float cameraZoom = 1.0f;
+    private float minCameraZoom = DEFAULT_MIN_CAMERA_ZOOM;
+    private float maxCameraZoom = DEFAULT_MAX_CAMERA_ZOOM;
+    private boolean cameraEnabled;
+    private final Matrix cameraMatrix = new Matrix();
+
+    /** A drag's position and scale mapped from view coords to scene coords */
+    private final PositionAndScale scenePosAndScale = new PositionAndScale();
+
+    /** Timings and counts, only recorded when not null */
+    private TurboImageViewMetrics metrics;
+
     private TurboImageViewListener listener;
+    private TurboImageViewBatchListener batchListener;
     private int objectBorderColor = MultiTouchObject.DEFAULT_BORDER_COLOR;
 
     private boolean selectOnObjectAdded = true;
+    private boolean saveSceneEnabled;
 
     public TurboImageView(Context context) {
         this(context, null);
@@ -45,6 +116,8 @@ public class TurboImageView extends View implements MultiTouchObjectCanvas<Multi
 
     private void init() {
         setBackgroundColor(Color.TRANSPARENT);
+        multiTouchController.setCoalesceHistory(true);
+        multiTouchController.setGrabCanvas(this);
     }
 
     public void addObject(Context context, int resourceId) {
@@ -62,43 +135,533 @@ public class TurboImageView extends View implements MultiTouchObjectCanvas<Multi
         addObject(context, imageObject);
     }
 
+    /**
+     * Add a bitmap that is shared, through the BitmapCache, with the other
+     * objects added under the same key, e.g. copies of the same sticker
+     */
+    public void addObject(Context context, Bitmap bitmap, String cacheKey) {
+        ImageObject imageObject = new ImageObject(bitmap, cacheKey, context.getResources());
+        addObject(context, imageObject);
+    }
+
+    /**
+     * Add an image decoded at the size it is shown with rather than at full
+     * resolution, see ImageSource. Only its size is read here, it is decoded
+     * in the background like with addObjectAsync().
+     */
+    public void addObject(Context context, ImageSource source) {
+        ImageObject imageObject = new ImageObject(source, context);
+        addObject(context, imageObject);
+    }
+
+    /**
+     * Add a very large image that is decoded tile by tile, only where it is
+     * visible and at the resolution it is shown with, see TiledImageObject.
+     */
+    public void addTiledObject(Context context, ImageSource source) {
+        TiledImageObject tiledObject = new TiledImageObject(source, context);
+        addObject(context, tiledObject, getX() + getWidth() / 2, getY() + getHeight() / 2);
+    }
+
+    /**
+     * Add an image that is decoded in the background. A placeholder is shown
+     * at the center of the view straight away, and can be moved, scaled and
+     * rotated until the image replaces it. Removing the object cancels the
+     * decode.
+     *
+     * @return the placeholder object, which becomes the image once loaded
+     */
+    public MultiTouchObject addObjectAsync(Context context, ImageSource source) {
+        return addObjectAsync(context, source, getX() + getWidth() / 2,
+            getY() + getHeight() / 2);
+    }
+
+    /** Add an image that is decoded in the background, centered at the given point */
+    public MultiTouchObject addObjectAsync(Context context, ImageSource source,
+                                           float centerX, float centerY) {
+        ImageObject imageObject = ImageObject.createPlaceholder(source, context);
+        addObject(context, imageObject, centerX, centerY);
+        return imageObject;
+    }
+
     private void addObject(Context context, ImageObject imageObject) {
+        float cx = getX() + getWidth() / 2;
+        float cy = getY() + getHeight() / 2;
+        addObject(context, imageObject, cx, cy);
+    }
+
+    /** Add an object centered at the given view coords */
+    private void addObject(Context context, MultiTouchObject imageObject, float cx, float cy) {
         deselectAll();
 
         imageObject.setSelected(selectOnObjectAdded);
         imageObject.setBorderColor(objectBorderColor);
+        attachObject(imageObject);
         mImages.add(imageObject);
+        layerCache.invalidate();
 
-        float cx = getX() + getWidth() / 2;
-        float cy = getY() + getHeight() / 2;
-        mImages.get(mImages.size() - 1).init(context, cx, cy);
+        imageObject.init(context, toSceneX(cx), toSceneY(cy));
+
+        addDirtyObject(imageObject);
+        invalidateDirty();
+    }
 
+
+    /**
+     * Write the scene in the compact SceneSnapshot format: image source
+     * references and transforms, no pixels. Objects added from a raw Bitmap
+     * or Drawable are left out.
+     */
+    public void saveScene(OutputStream out) throws IOException {
+        SceneSnapshot.write(mImages, new DataOutputStream(new BufferedOutputStream(out)));
+    }
+
+    /**
+     * Replace the scene with one written by saveScene(). Images are decoded
+     * in the background, placeholders are shown meanwhile.
+     */
+    public void restoreScene(Context context, InputStream in) throws IOException {
+        List<MultiTouchObject> objects = SceneSnapshot.read(context,
+            new DataInputStream(new BufferedInputStream(in)));
+        removeAllObjects();
+        for (MultiTouchObject object : objects) {
+            attachObject(object);
+            mImages.add(object);
+            // Restored objects init() to their saved state
+            object.init(context, object.getCenterX(), object.getCenterY());
+        }
+        layerCache.invalidate();
         invalidate();
     }
 
+    /**
+     * Whether the scene is saved and restored with the view's instance state,
+     * e.g. across rotations. Default: false
+     */
+    public void setSaveSceneEnabled(boolean saveSceneEnabled) {
+        this.saveSceneEnabled = saveSceneEnabled;
+    }
+
+    public boolean isSaveSceneEnabled() {
+        return saveSceneEnabled;
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Parcelable superState = super.onSaveInstanceState();
+        if (!saveSceneEnabled) {
+            return superState;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            saveScene(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save the scene", e);
+            return superState;
+        }
+        SavedState savedState = new SavedState(superState);
+        savedState.scene = out.toByteArray();
+        savedState.cameraX = cameraX;
+        savedState.cameraY = cameraY;
+        savedState.cameraZoom = cameraZoom;
+        return savedState;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        setCamera(savedState.cameraX, savedState.cameraY, savedState.cameraZoom);
+        try {
+            restoreScene(getContext(), new ByteArrayInputStream(savedState.scene));
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to restore the scene", e);
+        }
+    }
+
+    static class SavedState extends BaseSavedState {
+        byte[] scene;
+        float cameraX;
+        float cameraY;
+        float cameraZoom;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            scene = in.createByteArray();
+            cameraX = in.readFloat();
+            cameraY = in.readFloat();
+            cameraZoom = in.readFloat();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeByteArray(scene);
+            out.writeFloat(cameraX);
+            out.writeFloat(cameraY);
+            out.writeFloat(cameraZoom);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR =
+            new Parcelable.Creator<SavedState>() {
+                @Override
+                public SavedState createFromParcel(Parcel in) {
+                    return new SavedState(in);
+                }
+
+                @Override
+                public SavedState[] newArray(int size) {
+                    return new SavedState[size];
+                }
+            };
+    }
+
+    /**
+     * Capture the part of the scene the view shows for exporting at the given
+     * scale (output pixels per view pixel), without selection borders. Call
+     * export() on the result from a background thread, and don't change the
+     * objects until it ends.
+     */
+    public SceneExporter createExporter(float scale) {
+        return new SceneExporter(mImages, toSceneX(0), toSceneY(0),
+            getWidth() / cameraZoom, getHeight() / cameraZoom, scale * cameraZoom);
+    }
 
     public void setObjectSelectedBorderColor(int borderColor) {
         this.objectBorderColor = borderColor;
         for (MultiTouchObject imageObject : mImages) {
             imageObject.setBorderColor(borderColor);
+            if (imageObject.isSelected()) {
+                addDirtyObject(imageObject);
+                layerCache.onObjectChanged(imageObject);
+            }
         }
-        invalidate();
+        invalidateDirty();
     }
 
     public int getObjectSelectedBorderColor() {
         return this.objectBorderColor;
     }
 
+    /**
+     * While an object is dragged, draw the objects below and above it from
+     * cached bitmaps so that frame time does not grow with the object count.
+     * The bitmaps are drawn when the object first moves, so a tap costs
+     * nothing. Costs one view-sized bitmap, two if something is stacked above
+     * the dragged object. Default: false
+     */
+    public void setLayerCachingEnabled(boolean layerCachingEnabled) {
+        this.layerCachingEnabled = layerCachingEnabled;
+        if (!layerCachingEnabled) {
+            drawingLayers = false;
+            layerCache.release();
+            invalidate();
+        }
+    }
+
+    /**
+     * Keep a copy of every object's transform in a SceneStore, so that each
+     * frame is culled in one pass over flat arrays instead of one
+     * quickReject() per object. Worth it for scenes of thousands of objects.
+     * Default: false
+     */
+    public void setSceneStoreEnabled(boolean enabled) {
+        if (enabled == (sceneStore != null)) {
+            return;
+        }
+        if (enabled) {
+            sceneStore = new SceneStore(Math.max(mImages.size(), 1));
+            for (MultiTouchObject imageObject : mImages) {
+                imageObject.storeSlot = sceneStore.allocate();
+                imageObject.copyTo(sceneStore, imageObject.storeSlot);
+            }
+        } else {
+            for (MultiTouchObject imageObject : mImages) {
+                imageObject.storeSlot = -1;
+            }
+            sceneStore = null;
+        }
+    }
+
+    public boolean isSceneStoreEnabled() {
+        return sceneStore != null;
+    }
+
+    /**
+     * Whether dragging or pinching empty space with two fingers pans and
+     * zooms the camera, turning the view into a window over a larger scene.
+     * Default: false
+     */
+    public void setCameraEnabled(boolean cameraEnabled) {
+        this.cameraEnabled = cameraEnabled;
+        multiTouchController.setCameraCanvas(cameraEnabled ? this : null);
+    }
+
+    public boolean isCameraEnabled() {
+        return cameraEnabled;
+    }
+
+    /**
+     * Move the camera so that scene point (0, 0) is shown at view point
+     * (x, y), at the given zoom. The zoom is clamped to the zoom range.
+     */
+    public void setCamera(float x, float y, float zoom) {
+        cameraX = x;
+        cameraY = y;
+        cameraZoom = Math.max(minCameraZoom, Math.min(maxCameraZoom, zoom));
+        cameraMatrix.setScale(cameraZoom, cameraZoom);
+        cameraMatrix.postTranslate(cameraX, cameraY);
+        layerCache.invalidate();
+        invalidate();
+    }
+
+    /** Show the scene unpanned and unzoomed */
+    public void resetCamera() {
+        setCamera(0, 0, 1.0f);
+    }
+
+    public float getCameraX() {
+        return cameraX;
+    }
+
+    public float getCameraY() {
+        return cameraY;
+    }
+
+    public float getCameraZoom() {
+        return cameraZoom;
+    }
+
+    /** Limit how far the camera zooms. Default: 0.1 to 10 */
+    public void setCameraZoomRange(float minZoom, float maxZoom) {
+        if (minZoom <= 0 || maxZoom < minZoom) {
+            throw new IllegalArgumentException("Invalid zoom range " + minZoom + " - " + maxZoom);
+        }
+        minCameraZoom = minZoom;
+        maxCameraZoom = maxZoom;
+        setCamera(cameraX, cameraY, cameraZoom);
+    }
+
+    /** Map a view x coord to scene coords */
+    public float toSceneX(float viewX) {
+        return (viewX - cameraX) / cameraZoom;
+    }
+
+    /** Map a view y coord to scene coords */
+    public float toSceneY(float viewY) {
+        return (viewY - cameraY) / cameraZoom;
+    }
+
+    @Override
+    public void getCameraPositionAndScale(PositionAndScale camPosAndScaleOut) {
+        camPosAndScaleOut.set(cameraX, cameraY, true, cameraZoom, false, cameraZoom, cameraZoom,
+            false, 0.0f);
+    }
+
+    @Override
+    public void setCameraPositionAndScale(PositionAndScale newCamPosAndScale,
+                                          PointInfo touchPoint) {
+        float zoom = newCamPosAndScale.getScale();
+        float x = newCamPosAndScale.getXOff();
+        float y = newCamPosAndScale.getYOff();
+        float clampedZoom = Math.max(minCameraZoom, Math.min(maxCameraZoom, zoom));
+        if (clampedZoom != zoom) {
+            // Keep the scene point under the fingers in place at the clamped zoom
+            float ratio = clampedZoom / zoom;
+            x = touchPoint.getX() - (touchPoint.getX() - x) * ratio;
+            y = touchPoint.getY() - (touchPoint.getY() - y) * ratio;
+        }
+        setCamera(x, y, clampedZoom);
+    }
+
+    public boolean isLayerCachingEnabled() {
+        return layerCachingEnabled;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layerCache.invalidate();
+        // Flung objects stay in the view
+        multiTouchController.setFlingBounds(0, 0, w, h);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        drawingLayers = false;
+        layerCache.release();
+    }
+
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        if (metrics == null) {
+            drawFrame(canvas);
+            return;
+        }
+        long start = System.nanoTime();
+        int drawn = drawFrame(canvas);
+        metrics.recordDraw(System.nanoTime() - start, SystemClock.uptimeMillis());
+        if (drawn >= 0) {
+            metrics.recordObjectCounts(drawn, mImages.size() - drawn);
+        }
+    }
+
+    /** @return the number of objects drawn, or -1 if drawn from cached layers */
+    private int drawFrame(Canvas canvas) {
+        // Layers made stale during the drag are rebuilt here, around the dragged object
+        if (drawingLayers && layerCache.build(mImages, draggedObject, getWidth(), getHeight(),
+            cameraMatrix, cameraZoom)) {
+            layerCache.draw(canvas, cameraMatrix, cameraZoom);
+            return -1;
+        }
+        // From here on the clip, and so all culling, is in scene coords
+        canvas.save();
+        canvas.concat(cameraMatrix);
+        int drawn = drawScene(canvas);
+        canvas.restore();
+        return drawn;
+    }
+
+    /**
+     * Draw the objects that intersect the clip, which is in scene coords
+     *
+     * @return the number of objects drawn
+     */
+    private int drawScene(Canvas canvas) {
+        int drawn = 0;
+        if (sceneStore != null) {
+            // Cull the whole scene in one pass over the store's arrays
+            canvas.getClipBounds(clipRect);
+            sceneStore.cull(clipRect.left, clipRect.top, clipRect.right, clipRect.bottom);
+            for (MultiTouchObject imageObject : mImages) {
+                if (sceneStore.isVisible(imageObject.storeSlot)) {
+                    imageObject.draw(canvas, cameraZoom);
+                    drawn++;
+                }
+            }
+            return drawn;
+        }
         for (MultiTouchObject imageObject : mImages) {
-            imageObject.draw(canvas);
+            // Skip everything outside of the visible, invalidated area
+            imageObject.getDirtyBounds(objectBounds);
+            if (!canvas.quickReject(objectBounds, Canvas.EdgeType.AA)) {
+                imageObject.draw(canvas, cameraZoom);
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    @Override
+    public void invalidateObject(MultiTouchObject object) {
+        layerCache.onObjectChanged(object);
+        addDirtyObject(object);
+        invalidateDirty();
+    }
+
+    /** Keep the selection list in sync and repaint the selection border */
+    @Override
+    public void onSelectionChanged(MultiTouchObject object) {
+        if (object.isSelected()) {
+            addSelected(object);
+        } else {
+            removeSelected(object);
+        }
+        layerCache.onObjectChanged(object);
+        addDirtyObject(object);
+        invalidateDirty();
+    }
+
+    private void addSelected(MultiTouchObject object) {
+        if (object.selectionIndex < 0) {
+            object.selectionIndex = selection.size();
+            selection.add(object);
+        }
+    }
+
+    /** Swap the last selected object into the removed one's slot, O(1) */
+    private void removeSelected(MultiTouchObject object) {
+        int index = object.selectionIndex;
+        if (index < 0) {
+            return;
+        }
+        MultiTouchObject last = selection.remove(selection.size() - 1);
+        if (last != object) {
+            selection.set(index, last);
+            last.selectionIndex = index;
+        }
+        object.selectionIndex = -1;
+    }
+
+    /** Start tracking an object added to the scene */
+    private void attachObject(MultiTouchObject object) {
+        if (sceneStore != null) {
+            object.storeSlot = sceneStore.allocate();
+            object.copyTo(sceneStore, object.storeSlot);
+        }
+        object.setCallback(this);
+        if (object.isSelected()) {
+            addSelected(object);
+        }
+    }
+
+    /** Stop tracking an object removed from the scene */
+    private void detachObject(MultiTouchObject object) {
+        removeSelected(object);
+        if (object.storeSlot >= 0) {
+            sceneStore.free(object.storeSlot);
+            object.storeSlot = -1;
+        }
+        object.setCallback(null);
+    }
+
+    @Override
+    public void onIntrinsicSizeChanged(MultiTouchObject object) {
+        if (object == draggedObject) {
+            multiTouchController.resetDrag();
+        }
+    }
+
+    /** Add the area covered by the object, including its border, to the dirty area */
+    private void addDirtyObject(MultiTouchObject object) {
+        getViewDirtyBounds(object, objectBounds);
+        dirtyBounds.union(objectBounds);
+    }
+
+    /** The area covered by the object, including its border, in view coords */
+    private void getViewDirtyBounds(MultiTouchObject object, RectF out) {
+        object.getDirtyBounds(out);
+        out.set(out.left * cameraZoom + cameraX, out.top * cameraZoom + cameraY,
+            out.right * cameraZoom + cameraX, out.bottom * cameraZoom + cameraY);
+    }
+
+    /** Invalidate only the accumulated dirty area, if any */
+    private void invalidateDirty() {
+        if (!dirtyBounds.isEmpty()) {
+            dirtyBounds.roundOut(dirtyRect);
+            invalidate(dirtyRect);
+            dirtyBounds.setEmpty();
         }
     }
 
     @Override
     public boolean onTouchEvent(@NonNull MotionEvent event) {
-        return multiTouchController.onTouchEvent(event);
+        if (metrics == null) {
+            return multiTouchController.onTouchEvent(event);
+        }
+        long start = System.nanoTime();
+        boolean handled = multiTouchController.onTouchEvent(event);
+        metrics.recordTouchEvent(System.nanoTime() - start);
+        return handled;
     }
 
     /**
@@ -106,16 +669,39 @@ public class TurboImageView extends View implements MultiTouchObjectCanvas<Multi
      * (canceling the drag op) if none
      */
     public MultiTouchObject getDraggableObjectAtPoint(PointInfo touchPoint) {
-        float x = touchPoint.getX();
-        float y = touchPoint.getY();
+        float x = toSceneX(touchPoint.getX());
+        float y = toSceneY(touchPoint.getY());
 
-        for (int i = mImages.size() - 1; i >= 0; i--) {
-            ImageObject imageObject = (ImageObject) mImages.get(i);
-            if (imageObject.containsPoint(x, y)) {
-                return imageObject;
+        MultiTouchObject topmost = null;
+        int topmostIndex = -1;
+        spatialIndex.query(x, y, hitCandidates);
+        for (int i = 0, n = hitCandidates.size(); i < n; i++) {
+            MultiTouchObject candidate = hitCandidates.get(i);
+            boolean hit = sceneStore != null
+                ? sceneStore.containsPoint(candidate.storeSlot, x, y)
+                : candidate.containsPoint(x, y);
+            if (hit) {
+                int index = mImages.indexOf(candidate);
+                if (index > topmostIndex) {
+                    topmost = candidate;
+                    topmostIndex = index;
+                }
             }
         }
-        return null;
+        hitCandidates.clear();
+        return topmost;
+    }
+
+    /** Keep the spatial index in sync with the object's new bounds */
+    @Override
+    public void onBoundsChanged(MultiTouchObject object) {
+        layerCache.onObjectChanged(object);
+        object.getBounds(objectBounds);
+        spatialIndex.update(object, objectBounds.left, objectBounds.top,
+            objectBounds.right, objectBounds.bottom);
+        if (sceneStore != null) {
+            object.copyTo(sceneStore, object.storeSlot);
+        }
     }
 
     /**
@@ -126,27 +712,86 @@ public class TurboImageView extends View implements MultiTouchObjectCanvas<Multi
     public void selectObject(MultiTouchObject multiTouchObject, PointInfo touchPoint) {
         currTouchPoint.set(touchPoint);
         if (multiTouchObject != null) {
+            multiTouchObject.setSelected(true);
             // Move image to the top of the stack when selected
-            mImages.remove(multiTouchObject);
-            mImages.add(multiTouchObject);
+            mImages.bringToFront(multiTouchObject);
+            boolean otherHeld = draggedObject != null && draggedObject != multiTouchObject;
+            draggedObject = multiTouchObject;
+            // The layers are built by the first frame the object moves in, not on
+            // touch-down, and never while another object is still grabbed, as the
+            // layers hold only one moving object
+            drawingLayers = false;
+            layersPending = layerCachingEnabled && !otherHeld;
+            addDirtyObject(multiTouchObject);
             if (listener != null) {
                 listener.onImageObjectSelected(multiTouchObject);
             }
         } else {
             // Called with multiTouchObject == null when drag stops.
-            if (listener != null) {
-                listener.onImageObjectDropped();
-            }
+            dropObject(draggedObject);
+        }
+        invalidateDirty();
+    }
+
+    /** A multi-grab let go of the object, other objects may still be held */
+    @Override
+    public void releaseObject(MultiTouchObject multiTouchObject, PointInfo touchPoint) {
+        currTouchPoint.set(touchPoint);
+        dropObject(multiTouchObject);
+        invalidateDirty();
+    }
+
+    private void dropObject(MultiTouchObject multiTouchObject) {
+        if (multiTouchObject != null) {
+            addDirtyObject(multiTouchObject);
+        }
+        if (multiTouchObject == draggedObject) {
+            draggedObject = null;
+            // The layers are rebuilt lazily, when the next drag starts moving
+            drawingLayers = false;
+            layersPending = false;
+        }
+        if (listener != null) {
+            listener.onImageObjectDropped();
         }
-        invalidate();
     }
 
     @Override
     public void deselectAll() {
+        // Each deselected object removes itself from the end of the selection
+        for (int i = selection.size() - 1; i >= 0; i--) {
+            selection.get(i).setSelected(false);
+        }
+        invalidateDirty();
+    }
+
+    /** Select every object in the view */
+    public void selectAll() {
         for (MultiTouchObject imageObject : mImages) {
-            imageObject.setSelected(false);
+            imageObject.setSelected(true);
         }
-        invalidate();
+        invalidateDirty();
+    }
+
+    /** Select the object, keeping the other selected objects selected */
+    public void addToSelection(MultiTouchObject object) {
+        object.setSelected(true);
+        invalidateDirty();
+    }
+
+    public void removeFromSelection(MultiTouchObject object) {
+        object.setSelected(false);
+        invalidateDirty();
+    }
+
+    public void toggleSelection(MultiTouchObject object) {
+        object.setSelected(!object.isSelected());
+        invalidateDirty();
+    }
+
+    /** The selected objects, in no particular order. Do not modify. */
+    public List<MultiTouchObject> getSelectedObjects() {
+        return Collections.unmodifiableList(selection);
     }
 
     @Override
@@ -157,66 +802,342 @@ public class TurboImageView extends View implements MultiTouchObjectCanvas<Multi
     }
 
     public boolean removeSelectedObject() {
-        boolean deleted = false;
-        Iterator<MultiTouchObject> iterator = mImages.iterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().isSelected()) {
-                iterator.remove();
-                deleted = true;
+        boolean deleted = !selection.isEmpty();
+        // Each detached object removes itself from the end of the selection
+        for (int i = selection.size() - 1; i >= 0; i--) {
+            MultiTouchObject imageObject = selection.get(i);
+            mImages.remove(imageObject);
+            spatialIndex.remove(imageObject);
+            detachObject(imageObject);
+            imageObject.unload();
+            addDirtyObject(imageObject);
+            if (imageObject == draggedObject) {
+                drawingLayers = false;
             }
         }
+        if (deleted) {
+            layerCache.invalidate();
+        }
 
-        invalidate();
+        invalidateDirty();
         return deleted;
     }
 
     public void removeAllObjects() {
+        for (MultiTouchObject imageObject : mImages) {
+            detachObject(imageObject);
+            imageObject.unload();
+        }
         mImages.clear();
+        spatialIndex.clear();
+        drawingLayers = false;
+        layerCache.invalidate();
         invalidate();
     }
 
     public int getSelectedObjectCount() {
-        int count = 0;
-        for (MultiTouchObject imageObject : mImages) {
-            if (imageObject.isSelected()) {
-                count++;
-            }
-        }
-        return count;
+        return selection.size();
     }
 
     public int getObjectCount() {
         return mImages.size();
     }
 
+    /** Get the object at the given stacking index, 0 being the bottom one */
+    public MultiTouchObject getObject(int index) {
+        return mImages.get(index);
+    }
+
+    /** Get the stacking index of the object, 0 being the bottom, or -1 */
+    public int getObjectIndex(MultiTouchObject object) {
+        return mImages.indexOf(object);
+    }
+
+    /** Draw the object on top of all the others */
+    public void bringToFront(MultiTouchObject object) {
+        moveToIndex(object, mImages.size() - 1);
+    }
+
+    /** Draw the object below all the others */
+    public void sendToBack(MultiTouchObject object) {
+        moveToIndex(object, 0);
+    }
+
+    /**
+     * Move the object to the given stacking index, 0 being the bottom
+     *
+     * @throws IllegalArgumentException if the object is not in this view
+     */
+    public void moveToIndex(MultiTouchObject object, int index) {
+        mImages.moveTo(object, index);
+        layerCache.invalidate();
+        addDirtyObject(object);
+        invalidateDirty();
+    }
+
     public void setListener(TurboImageViewListener turboImageViewListener) {
         this.listener = turboImageViewListener;
     }
 
+    public void setBatchListener(TurboImageViewBatchListener batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Start collecting changes to apply at once, e.g. to load many objects
+     * without deselecting and invalidating for each one.
+     */
+    public SceneBatch beginBatch(Context context) {
+        return new SceneBatch(this, context);
+    }
+
+    /** Apply a SceneBatch in one pass over the objects */
+    void commitBatch(SceneBatch batch, Context context) {
+        boolean deselect = selectOnObjectAdded && !batch.added.isEmpty();
+        if (batch.borderColorChanged) {
+            objectBorderColor = batch.borderColor;
+        }
+
+        int removedCount = 0;
+        int changedCount = 0;
+        Iterator<MultiTouchObject> iterator = mImages.iterator();
+        while (iterator.hasNext()) {
+            MultiTouchObject object = iterator.next();
+            if (batch.isRemoved(object)) {
+                iterator.remove();
+                spatialIndex.remove(object);
+                detachObject(object);
+                object.unload();
+                if (object == draggedObject) {
+                    drawingLayers = false;
+                }
+                removedCount++;
+                continue;
+            }
+
+            boolean changed = false;
+            for (int i = 0, n = batch.transforms.size(); i < n; i++) {
+                SceneBatch.Transform transform = batch.transforms.get(i);
+                if (transform.filter.accept(object)) {
+                    object.setPos(object.getCenterX() + transform.translateX,
+                        object.getCenterY() + transform.translateY,
+                        object.getScaleX() * transform.scaleFactor,
+                        object.getScaleY() * transform.scaleFactor,
+                        object.getAngle() + transform.rotation);
+                    changed = true;
+                }
+            }
+            for (int i = 0, n = batch.flips.size(); i < n; i++) {
+                SceneBatch.Flip flip = batch.flips.get(i);
+                if (flip.filter.accept(object)) {
+                    object.setFlippedHorizontally(flip.flipped);
+                    changed = true;
+                }
+            }
+            if (batch.borderColorChanged) {
+                object.setBorderColor(batch.borderColor);
+                changed = true;
+            }
+            if (deselect && object.isSelected()) {
+                // Not through setSelected(), whose callback would invalidate each
+                // object, the whole view is invalidated below
+                removeSelected(object);
+                object.isLatestSelected = false;
+                changed = true;
+            }
+            if (changed) {
+                changedCount++;
+            }
+        }
+
+        float cx = toSceneX(getX() + getWidth() / 2);
+        float cy = toSceneY(getY() + getHeight() / 2);
+        for (int i = 0, n = batch.added.size(); i < n; i++) {
+            MultiTouchObject object = batch.added.get(i);
+            // Like addObject(), only the last added object ends up selected
+            object.setSelected(selectOnObjectAdded && i == n - 1);
+            object.setBorderColor(objectBorderColor);
+            attachObject(object);
+            mImages.add(object);
+            object.init(context, cx, cy);
+        }
+
+        layerCache.invalidate();
+        invalidate();
+        if (batchListener != null) {
+            batchListener.onBatchCommitted(batch.added.size(), removedCount, changedCount);
+        }
+    }
+
     /**
      * Get the current position and scale of the selected image. Called whenever
      * a drag starts or is reset.
      */
     public void getPositionAndScale(MultiTouchObject multiTouchObject, PositionAndScale objPosAndScaleOut) {
-        objPosAndScaleOut.set(multiTouchObject.getCenterX(), multiTouchObject.getCenterY(),
+        // Drags work in view coords, so report where the camera shows the object
+        objPosAndScaleOut.set(multiTouchObject.getCenterX() * cameraZoom + cameraX,
+            multiTouchObject.getCenterY() * cameraZoom + cameraY,
             (mUIMode & UI_MODE_ANISOTROPIC_SCALE) == 0,
-            (multiTouchObject.getScaleX() + multiTouchObject.getScaleY()) / 2,
-            (mUIMode & UI_MODE_ANISOTROPIC_SCALE) != 0, multiTouchObject.getScaleX(),
-            multiTouchObject.getScaleY(), (mUIMode & UI_MODE_ROTATE) != 0,
+            (multiTouchObject.getScaleX() + multiTouchObject.getScaleY()) / 2 * cameraZoom,
+            (mUIMode & UI_MODE_ANISOTROPIC_SCALE) != 0, multiTouchObject.getScaleX() * cameraZoom,
+            multiTouchObject.getScaleY() * cameraZoom, (mUIMode & UI_MODE_ROTATE) != 0,
             multiTouchObject.getAngle());
     }
 
     /** Set the position and scale of the dragged/stretched image. */
     public boolean setPositionAndScale(MultiTouchObject multiTouchObject,
                                        PositionAndScale newImgPosAndScale, PointInfo touchPoint) {
+        if (metrics == null) {
+            return moveObject(multiTouchObject, newImgPosAndScale, touchPoint);
+        }
+        long start = System.nanoTime();
+        boolean moved = moveObject(multiTouchObject, newImgPosAndScale, touchPoint);
+        metrics.recordSetPosition(System.nanoTime() - start, touchPoint);
+        return moved;
+    }
+
+    private boolean moveObject(MultiTouchObject multiTouchObject,
+                               PositionAndScale newImgPosAndScale, PointInfo touchPoint) {
+        if (!mImages.contains(multiTouchObject)) {
+            // Removed while still being flung
+            return false;
+        }
         currTouchPoint.set(touchPoint);
-        boolean moved = multiTouchObject.setPos(newImgPosAndScale);
+        getViewDirtyBounds(multiTouchObject, movedFromBounds);
+        scenePosAndScale.set(toSceneX(newImgPosAndScale.getXOff()),
+            toSceneY(newImgPosAndScale.getYOff()),
+            newImgPosAndScale.isUpdateScale(), newImgPosAndScale.getScale() / cameraZoom,
+            newImgPosAndScale.isUpdateScaleXY(), newImgPosAndScale.getScaleX() / cameraZoom,
+            newImgPosAndScale.getScaleY() / cameraZoom,
+            newImgPosAndScale.isUpdateAngle(), newImgPosAndScale.getAngle());
+        boolean moved = multiTouchObject.setPos(scenePosAndScale);
         if (moved) {
-            invalidate();
+            if (layersPending && multiTouchObject == draggedObject && layerCachingEnabled) {
+                layersPending = false;
+                drawingLayers = true;
+            }
+            // Repaint both where the object was and where it is now
+            dirtyBounds.union(movedFromBounds);
+            addDirtyObject(multiTouchObject);
+            invalidateDirty();
         }
         return moved;
     }
 
+    /**
+     * Set where touch pointers are read from, e.g. a ReflectiveTouchSource on
+     * legacy devices. Default: a DirectTouchSource.
+     */
+    public void setTouchSource(TouchSource touchSource) {
+        multiTouchController.setTouchSource(touchSource);
+    }
+
+    /**
+     * Record the touches the view handles, e.g. to replay a gesture that went
+     * wrong with replayTouches(). Pass null to stop recording.
+     */
+    public void setTouchRecorder(TouchRecorder touchRecorder) {
+        multiTouchController.setTouchRecorder(touchRecorder);
+    }
+
+    /**
+     * Run a recorded gesture through the view, as if it was touched again.
+     * Turn touch prediction and flings off first, see TouchReplayer.
+     */
+    public void replayTouches(TouchReplayer replayer) {
+        replayer.replay(multiTouchController.getGestureEngine());
+    }
+
+    /**
+     * Whether batched touch history moves the dragged object once per event
+     * rather than once per sample, see MultiTouchController.setCoalesceHistory().
+     * Default: true
+     */
+    public void setCoalesceTouchHistory(boolean coalesce) {
+        multiTouchController.setCoalesceHistory(coalesce);
+    }
+
+    public boolean isCoalesceTouchHistory() {
+        return multiTouchController.isCoalesceHistory();
+    }
+
+    /**
+     * Whether several objects can be moved at once, each by its own finger,
+     * or pinched by its own two fingers. Every grab repaints only its own
+     * object. Each grab calls onImageObjectSelected() when it starts and
+     * onImageObjectDropped() when its last finger lifts, so with several
+     * objects held the calls interleave. Flings and prediction are not used
+     * meanwhile. Default: false
+     */
+    public void setMultiGrabEnabled(boolean enabled) {
+        multiTouchController.setMultiGrabEnabled(enabled);
+    }
+
+    public boolean isMultiGrabEnabled() {
+        return multiTouchController.isMultiGrabEnabled();
+    }
+
+    /**
+     * Whether to record how long touch handling, moving objects and drawing
+     * take, and how many objects each frame draws, see getMetrics(). Costs a
+     * null check per event and frame when disabled. Default: false
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled && metrics == null) {
+            metrics = new TurboImageViewMetrics();
+        } else if (!enabled) {
+            metrics = null;
+        }
+    }
+
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    /**
+     * The metrics recorded since they were enabled or last reset, or null
+     * when disabled. Read them on the main thread.
+     */
+    public TurboImageViewMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether an object let go while moving, scaling or rotating keeps going
+     * and slows down, staying within the view. Touching the view stops it.
+     * Default: false
+     */
+    public void setFlingEnabled(boolean enabled) {
+        multiTouchController.setFlingEnabled(enabled);
+    }
+
+    public boolean isFlingEnabled() {
+        return multiTouchController.isFlingEnabled();
+    }
+
+    /** How fast flings slow down, see MultiTouchController.setFlingFriction(). Default: 4 */
+    public void setFlingFriction(float friction) {
+        multiTouchController.setFlingFriction(friction);
+    }
+
+    /**
+     * Whether the dragged object is moved once per display frame at a pose
+     * predicted a few milliseconds ahead, so it trails the finger less, see
+     * MultiTouchController.setPredictionEnabled(). Default: false
+     */
+    public void setTouchPredictionEnabled(boolean enabled) {
+        multiTouchController.setPredictionEnabled(enabled);
+    }
+
+    public boolean isTouchPredictionEnabled() {
+        return multiTouchController.isPredictionEnabled();
+    }
+
+    /** How far ahead to predict the drag when prediction is enabled. Default: 8 */
+    public void setTouchPredictionMillis(int predictionMillis) {
+        multiTouchController.setPredictionMillis(predictionMillis);
+    }
+
     public boolean pointInObjectGrabArea(PointInfo touchPoint, MultiTouchObject multiTouchObject) {
         return false;
     }
@@ -230,29 +1151,38 @@ public class TurboImageView extends View implements MultiTouchObjectCanvas<Multi
     }
 
     public void setFlippedHorizontallySelectedObject(boolean flipped) {
-        for (MultiTouchObject imageObject : mImages) {
-            if (imageObject.isSelected()) {
-                imageObject.setFlippedHorizontally(flipped);
-            }
+        for (int i = 0, n = selection.size(); i < n; i++) {
+            MultiTouchObject imageObject = selection.get(i);
+            imageObject.setFlippedHorizontally(flipped);
+            addDirtyObject(imageObject);
+            layerCache.onObjectChanged(imageObject);
         }
-        invalidate();
+        invalidateDirty();
     }
 
+    /** Whether the backmost selected object is flipped, false if none is selected */
     public boolean isFlippedHorizontallySelectedObject() {
-        for (MultiTouchObject imageObject : mImages) {
-            if (imageObject.isSelected()) {
-                return imageObject.isFlippedHorizontally();
+        // The selection is unordered, look each object up in the z-order instead
+        MultiTouchObject backmost = null;
+        int backmostIndex = Integer.MAX_VALUE;
+        for (int i = 0, n = selection.size(); i < n; i++) {
+            MultiTouchObject imageObject = selection.get(i);
+            int index = mImages.indexOf(imageObject);
+            if (index < backmostIndex) {
+                backmost = imageObject;
+                backmostIndex = index;
             }
         }
-        return false;
+        return backmost != null && backmost.isFlippedHorizontally();
     }
 
     public void toggleFlippedHorizontallySelectedObject() {
-        for (MultiTouchObject imageObject : mImages) {
-            if (imageObject.isSelected()) {
-                imageObject.setFlippedHorizontally(!imageObject.isFlippedHorizontally());
-            }
+        for (int i = 0, n = selection.size(); i < n; i++) {
+            MultiTouchObject imageObject = selection.get(i);
+            imageObject.setFlippedHorizontally(!imageObject.isFlippedHorizontally());
+            addDirtyObject(imageObject);
+            layerCache.onObjectChanged(imageObject);
         }
-        invalidate();
+        invalidateDirty();
     }
 }
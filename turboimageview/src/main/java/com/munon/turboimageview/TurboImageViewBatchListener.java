@@ -0,0 +1,7 @@
+package com.munon.turboimageview;
+
+
+public interface TurboImageViewBatchListener {
+    /** Called once per committed SceneBatch, instead of once per change */
+    void onBatchCommitted(int addedCount, int removedCount, int changedCount);
+}
@@ -0,0 +1,98 @@
+package com.munon.turboimageview;
+
+/**
+ * Timings and counts recorded by a TurboImageView while metrics are enabled,
+ * see TurboImageView.setMetricsEnabled(). Durations are in nanoseconds.
+ * Recorded and read on the main thread; poll it from there, e.g. copy it
+ * with copyFrom() into a snapshot and reset() it once per reporting period.
+ */
+public class TurboImageViewMetrics {
+    private final MetricsHistogram touchEventTimes = new MetricsHistogram();
+    private final MetricsHistogram setPositionTimes = new MetricsHistogram();
+    private final MetricsHistogram drawTimes = new MetricsHistogram();
+    private final MetricsHistogram touchToDrawLatencies = new MetricsHistogram();
+    private final MetricsHistogram objectsDrawn = new MetricsHistogram();
+    private final MetricsHistogram objectsCulled = new MetricsHistogram();
+
+    /** Event time of the oldest touch sample that moved an object but is not drawn yet, or 0 */
+    private long pendingEventTime;
+
+    /** Time spent handling each touch event, gesture math included */
+    public MetricsHistogram getTouchEventTimes() {
+        return touchEventTimes;
+    }
+
+    /** Time spent moving the dragged object, once per applied transform */
+    public MetricsHistogram getSetPositionTimes() {
+        return setPositionTimes;
+    }
+
+    /** Time spent in onDraw(), per frame */
+    public MetricsHistogram getDrawTimes() {
+        return drawTimes;
+    }
+
+    /**
+     * Time from a touch sample that moved an object being generated to the
+     * end of the first frame drawn after it, at millisecond resolution.
+     * Excludes the time it takes the frame to reach the screen.
+     */
+    public MetricsHistogram getTouchToDrawLatencies() {
+        return touchToDrawLatencies;
+    }
+
+    /** Number of objects drawn per frame, not recorded for frames drawn from cached layers */
+    public MetricsHistogram getObjectsDrawn() {
+        return objectsDrawn;
+    }
+
+    /** Number of objects skipped per frame for being outside the drawn area */
+    public MetricsHistogram getObjectsCulled() {
+        return objectsCulled;
+    }
+
+    public void reset() {
+        touchEventTimes.reset();
+        setPositionTimes.reset();
+        drawTimes.reset();
+        touchToDrawLatencies.reset();
+        objectsDrawn.reset();
+        objectsCulled.reset();
+    }
+
+    /** Overwrite these metrics with another set's values, without allocating */
+    public void copyFrom(TurboImageViewMetrics other) {
+        touchEventTimes.copyFrom(other.touchEventTimes);
+        setPositionTimes.copyFrom(other.setPositionTimes);
+        drawTimes.copyFrom(other.drawTimes);
+        touchToDrawLatencies.copyFrom(other.touchToDrawLatencies);
+        objectsDrawn.copyFrom(other.objectsDrawn);
+        objectsCulled.copyFrom(other.objectsCulled);
+    }
+
+    void recordTouchEvent(long durationNanos) {
+        touchEventTimes.record(durationNanos);
+    }
+
+    void recordSetPosition(long durationNanos, PointInfo touchPoint) {
+        setPositionTimes.record(durationNanos);
+        // Flings move objects with the finger already up, they have no input latency
+        if (touchPoint.isDown() && pendingEventTime == 0) {
+            pendingEventTime = touchPoint.getEventTime();
+        }
+    }
+
+    /** Called at the end of onDraw() */
+    void recordDraw(long durationNanos, long uptimeMillis) {
+        drawTimes.record(durationNanos);
+        if (pendingEventTime != 0) {
+            touchToDrawLatencies.record((uptimeMillis - pendingEventTime) * 1000000L);
+            pendingEventTime = 0;
+        }
+    }
+
+    void recordObjectCounts(int drawn, int culled) {
+        objectsDrawn.record(drawn);
+        objectsCulled.record(culled);
+    }
+}
@@ -0,0 +1,371 @@
+package com.munon.turboimageview;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Stacking order of a scene, back to front. Backed by an implicit treap
+ * (a randomized balanced tree ordered by position) plus an element to node
+ * map, so that looking up an element's position and moving it anywhere in
+ * the stack are O(log n) instead of the O(n) of ArrayList.remove()/add().
+ * Elements are unique and compared by identity. Iteration steps through the
+ * tree in O(1) amortized per element, back to front or front to back.
+ * Like ArrayList, iterators fail fast with a ConcurrentModificationException
+ * when the list is added to, removed from or reordered other than through
+ * the iterator itself.
+ */
+public class ZOrderList<T> extends AbstractList<T> {
+
+    private static final class Node<T> {
+        T value;
+        final int priority;
+        int size = 1;
+        Node<T> left;
+        Node<T> right;
+        Node<T> parent;
+
+        Node(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    private final IdentityHashMap<T, Node<T>> nodes = new IdentityHashMap<>();
+    private final Random random = new Random();
+    private Node<T> root;
+
+    /** Results of split(), to avoid allocating a pair */
+    private Node<T> splitLeft;
+    private Node<T> splitRight;
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public T get(int index) {
+        return nodeAt(index).value;
+    }
+
+    /** Append the element at the front (top) of the stack */
+    @Override
+    public boolean add(T element) {
+        root = merge(root, newNode(element));
+        root.parent = null;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        insert(index, newNode(element));
+        modCount++;
+    }
+
+    @Override
+    public T set(int index, T element) {
+        Node<T> node = nodeAt(index);
+        T old = node.value;
+        if (old != element) {
+            if (nodes.containsKey(element)) {
+                throw new IllegalArgumentException("Element is already in the list");
+            }
+            nodes.remove(old);
+            nodes.put(element, node);
+            node.value = element;
+        }
+        return old;
+    }
+
+    @Override
+    public T remove(int index) {
+        Node<T> node = nodeAt(index);
+        nodes.remove(node.value);
+        detach(index);
+        modCount++;
+        return node.value;
+    }
+
+    @Override
+    @SuppressWarnings("SuspiciousMethodCalls")
+    public boolean remove(Object element) {
+        Node<T> node = nodes.remove(element);
+        if (node == null) {
+            return false;
+        }
+        detach(rank(node));
+        modCount++;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("SuspiciousMethodCalls")
+    public boolean contains(Object element) {
+        return nodes.containsKey(element);
+    }
+
+    @Override
+    @SuppressWarnings("SuspiciousMethodCalls")
+    public int indexOf(Object element) {
+        Node<T> node = nodes.get(element);
+        return node == null ? -1 : rank(node);
+    }
+
+    @Override
+    public int lastIndexOf(Object element) {
+        return indexOf(element);
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        root = null;
+        modCount++;
+    }
+
+    /** Move the element to the front (top) of the stack */
+    public void bringToFront(T element) {
+        moveTo(element, size() - 1);
+    }
+
+    /** Move the element to the back (bottom) of the stack */
+    public void sendToBack(T element) {
+        moveTo(element, 0);
+    }
+
+    /** Move the element so that it ends up at the given index */
+    public void moveTo(T element, int index) {
+        Node<T> node = nodes.get(element);
+        if (node == null) {
+            throw new IllegalArgumentException("Element is not in the list");
+        }
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        int current = rank(node);
+        if (current == index) {
+            return;
+        }
+        detach(current);
+        node.left = node.right = node.parent = null;
+        node.size = 1;
+        insert(index, node);
+        modCount++;
+    }
+
+    /** Iterates back to front, the drawing order */
+    @Override
+    public Iterator<T> iterator() {
+        return new NodeIterator(first(root), true);
+    }
+
+    /** Iterates front to back, the hit-testing order */
+    public Iterator<T> descendingIterator() {
+        return new NodeIterator(last(root), false);
+    }
+
+    private class NodeIterator implements Iterator<T> {
+        private final boolean forward;
+        private Node<T> next;
+        private Node<T> lastReturned;
+        private int expectedModCount = modCount;
+
+        NodeIterator(Node<T> start, boolean forward) {
+            this.next = start;
+            this.forward = forward;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            checkForComodification();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = forward ? successor(next) : predecessor(next);
+            return lastReturned.value;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            // next is a separate node, it stays valid when lastReturned is unlinked
+            ZOrderList.this.remove(lastReturned.value);
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    private Node<T> newNode(T element) {
+        if (nodes.containsKey(element)) {
+            throw new IllegalArgumentException("Element is already in the list");
+        }
+        Node<T> node = new Node<>(element, random.nextInt());
+        nodes.put(element, node);
+        return node;
+    }
+
+    private void insert(int index, Node<T> node) {
+        split(root, index);
+        Node<T> right = splitRight;
+        root = merge(merge(splitLeft, node), right);
+        root.parent = null;
+    }
+
+    /** Unlink the node at the given index from the tree */
+    private void detach(int index) {
+        split(root, index);
+        Node<T> left = splitLeft;
+        split(splitRight, 1);
+        root = merge(left, splitRight);
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    private Node<T> nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private int rank(Node<T> node) {
+        int rank = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                rank += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return rank;
+    }
+
+    /** Split the tree into its first count nodes (splitLeft) and the rest (splitRight) */
+    private void split(Node<T> node, int count) {
+        if (node == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        if (size(node.left) >= count) {
+            split(node.left, count);
+            node.left = splitRight;
+            update(node);
+            splitRight = node;
+        } else {
+            split(node.right, count - size(node.left) - 1);
+            node.right = splitLeft;
+            update(node);
+            splitLeft = node;
+        }
+        if (splitLeft != null) {
+            splitLeft.parent = null;
+        }
+        if (splitRight != null) {
+            splitRight.parent = null;
+        }
+    }
+
+    private Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    private static <T> void update(Node<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    private static <T> int size(Node<T> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <T> Node<T> first(Node<T> node) {
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    private static <T> Node<T> last(Node<T> node) {
+        if (node != null) {
+            while (node.right != null) {
+                node = node.right;
+            }
+        }
+        return node;
+    }
+
+    private static <T> Node<T> successor(Node<T> node) {
+        if (node.right != null) {
+            return first(node.right);
+        }
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private static <T> Node<T> predecessor(Node<T> node) {
+        if (node.left != null) {
+            return last(node.left);
+        }
+        while (node.parent != null && node == node.parent.left) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+}
@@ -0,0 +1,127 @@
+package com.munon.turboimageview;
+
+/**
+ * A MultiTouchObjectCanvas of square boxes, so a GestureEngine can be driven
+ * without a view. Hit-testing ignores rotation. Nothing is allocated, so it
+ * can be used to count the allocations of the engine.
+ */
+class BoxCanvas implements MultiTouchObjectCanvas<BoxCanvas.Box>,
+    MultiTouchGrabCanvas<BoxCanvas.Box> {
+    /** A square of side 2 * halfSize * scale around its center */
+    static class Box {
+        final float startX;
+        final float startY;
+        final float halfSize;
+        float x;
+        float y;
+        float scale;
+        float angle;
+        int moveCount;
+
+        Box(float x, float y, float halfSize) {
+            this.startX = x;
+            this.startY = y;
+            this.halfSize = halfSize;
+            reset();
+        }
+
+        void reset() {
+            x = startX;
+            y = startY;
+            scale = 1.0f;
+            angle = 0.0f;
+            moveCount = 0;
+        }
+
+        boolean contains(float px, float py) {
+            float extent = halfSize * scale;
+            return Math.abs(px - x) <= extent && Math.abs(py - y) <= extent;
+        }
+    }
+
+    final Box[] boxes;
+    Box selected;
+    int selectCount;
+    int dropCount;
+    int touchedCount;
+    /** The boxes let go by multi-grabs, in order */
+    final Box[] released;
+    int releaseCount;
+
+    BoxCanvas(Box... boxes) {
+        this.boxes = boxes;
+        this.released = new Box[boxes.length];
+    }
+
+    /** Put the boxes back where they started and clear the counts */
+    void reset() {
+        for (Box box : boxes) {
+            box.reset();
+        }
+        selected = null;
+        selectCount = 0;
+        dropCount = 0;
+        touchedCount = 0;
+        releaseCount = 0;
+    }
+
+    @Override
+    public Box getDraggableObjectAtPoint(PointInfo touchPoint) {
+        // The last box is the top one
+        for (int i = boxes.length - 1; i >= 0; i--) {
+            if (boxes[i].contains(touchPoint.getX(), touchPoint.getY())) {
+                return boxes[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean pointInObjectGrabArea(PointInfo touchPoint, Box box) {
+        return false;
+    }
+
+    @Override
+    public void getPositionAndScale(Box box, PositionAndScale objPosAndScaleOut) {
+        objPosAndScaleOut.set(box.x, box.y, true, box.scale, false, box.scale, box.scale,
+            true, box.angle);
+    }
+
+    @Override
+    public boolean setPositionAndScale(Box box, PositionAndScale newObjPosAndScale,
+                                       PointInfo touchPoint) {
+        box.x = newObjPosAndScale.getXOff();
+        box.y = newObjPosAndScale.getYOff();
+        box.scale = newObjPosAndScale.getScale();
+        box.angle = newObjPosAndScale.getAngle();
+        box.moveCount++;
+        return true;
+    }
+
+    @Override
+    public void selectObject(Box box, PointInfo touchPoint) {
+        if (box != null) {
+            selectCount++;
+        } else {
+            dropCount++;
+        }
+        selected = box;
+    }
+
+    @Override
+    public void releaseObject(Box box, PointInfo touchPoint) {
+        if (releaseCount < released.length) {
+            released[releaseCount] = box;
+        }
+        releaseCount++;
+    }
+
+    @Override
+    public void deselectAll() {
+    }
+
+    @Override
+    public void canvasTouched() {
+        touchedCount++;
+    }
+}
@@ -0,0 +1,93 @@
+package com.munon.turboimageview;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * A whole drag, pinch and drop must not allocate once the engine is warmed
+ * up, so touch handling never causes garbage collections. Only runs on JVMs
+ * that count the bytes allocated per thread.
+ */
+public class GestureAllocationTest {
+    private BoxCanvas canvas;
+    private TouchScript pinch;
+    private long allocationOverhead;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean()
+            instanceof com.sun.management.ThreadMXBean);
+        canvas = new BoxCanvas(new BoxCanvas.Box(200, 200, 100));
+        pinch = TouchScript.pinch(180, 200);
+        long start = allocatedBytes();
+        allocationOverhead = allocatedBytes() - start;
+    }
+
+    @Test
+    public void pinchAllocatesNothing() {
+        assertEquals(0, allocatedByPinch(false));
+    }
+
+    @Test
+    public void coalescedPinchAllocatesNothing() {
+        assertEquals(0, allocatedByPinch(true));
+    }
+
+    @Test
+    public void twoGrabsAllocateNothing() {
+        BoxCanvas grabCanvas = new BoxCanvas(new BoxCanvas.Box(200, 200, 100),
+            new BoxCanvas.Box(600, 200, 100));
+        TouchScript grabs = TouchScript.twoGrabs(200, 200, 600, 200);
+        GestureEngine<BoxCanvas.Box> engine = new GestureEngine<>(grabCanvas, true);
+        engine.setMultiGrabEnabled(true);
+        engine.setGrabCanvas(grabCanvas);
+        for (int i = 0; i < 100; i++) {
+            grabCanvas.reset();
+            grabs.play(engine);
+        }
+
+        grabCanvas.reset();
+        long bytes = allocatedBytes();
+        grabs.play(engine);
+        long allocated = Math.max(0, allocatedBytes() - bytes - allocationOverhead);
+
+        assertTrue(grabCanvas.boxes[0].moveCount > 0);
+        assertTrue(grabCanvas.boxes[1].moveCount > 0);
+        assertEquals(2, grabCanvas.releaseCount);
+        assertEquals(0, allocated);
+    }
+
+    private long allocatedByPinch(boolean coalesce) {
+        GestureEngine<BoxCanvas.Box> engine = new GestureEngine<>(canvas, true);
+        engine.setCoalesceHistory(coalesce);
+        // The first run loads the classes and gets the code compiled
+        for (int i = 0; i < 100; i++) {
+            canvas.reset();
+            pinch.play(engine);
+        }
+
+        canvas.reset();
+        long bytes = allocatedBytes();
+        pinch.play(engine);
+        long allocated = Math.max(0, allocatedBytes() - bytes - allocationOverhead);
+
+        // The gesture did move, scale and turn the box, then dropped it
+        BoxCanvas.Box box = canvas.boxes[0];
+        assertTrue(box.moveCount > 0);
+        assertTrue(box.scale > 1.0f);
+        assertTrue(box.angle != 0.0f);
+        assertEquals(2, canvas.dropCount);
+        return allocated;
+    }
+
+    /** Bytes allocated by this thread so far */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,80 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Objects are unloaded when removed from the view, and must come back when
+ * added again, e.g. on undo, whatever they were created from.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ImageObjectTest {
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void resourceObjectIsLoadedAgain() {
+        ImageObject object = new ImageObject(android.R.drawable.star_big_on,
+            context.getResources());
+        object.init(context, 100, 100);
+        int width = object.getWidth();
+
+        object.unload();
+        assertFalse(object.isLoaded());
+        object.init(context, 100, 100);
+        assertTrue(object.isLoaded());
+        assertEquals(width, object.getWidth());
+    }
+
+    @Test
+    public void bitmapObjectKeepsItsBitmap() {
+        Bitmap bitmap = Bitmap.createBitmap(40, 30, Bitmap.Config.ARGB_8888);
+        ImageObject object = new ImageObject(bitmap, context.getResources());
+        object.init(context, 100, 100);
+
+        object.unload();
+        assertTrue(object.isLoaded());
+        // Nothing references the entry any more, so it may go
+        BitmapCache.getInstance().evictAll();
+        object.init(context, 100, 100);
+        assertEquals(40, object.getWidth());
+        assertEquals(30, object.getHeight());
+        // Back in the cache, and referenced again
+        BitmapCache cache = BitmapCache.getInstance();
+        cache.evictAll();
+        String key = BitmapCache.identityKey(bitmap);
+        assertSame(bitmap, cache.acquire(key));
+        cache.release(key);
+        object.unload();
+    }
+
+    @Test
+    public void drawableObjectKeepsItsDrawable() {
+        Bitmap bitmap = Bitmap.createBitmap(40, 30, Bitmap.Config.ARGB_8888);
+        ImageObject object = new ImageObject(new BitmapDrawable(context.getResources(), bitmap),
+            context.getResources());
+        object.init(context, 100, 100);
+
+        object.unload();
+        object.init(context, 100, 100);
+        assertEquals(40, object.getWidth());
+        assertEquals(30, object.getHeight());
+    }
+}
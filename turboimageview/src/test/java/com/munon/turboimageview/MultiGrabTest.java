@@ -0,0 +1,61 @@
+package com.munon.turboimageview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two fingers each move their own box, and every grab is let go on its own.
+ */
+public class MultiGrabTest {
+    private BoxCanvas canvas;
+    private BoxCanvas.Box left;
+    private BoxCanvas.Box right;
+    private GestureEngine<BoxCanvas.Box> engine;
+
+    @Before
+    public void setUp() {
+        left = new BoxCanvas.Box(200, 200, 100);
+        right = new BoxCanvas.Box(600, 200, 100);
+        canvas = new BoxCanvas(left, right);
+        engine = new GestureEngine<>(canvas, true);
+        engine.setMultiGrabEnabled(true);
+    }
+
+    @Test
+    public void eachGrabMovesItsOwnBox() {
+        engine.setGrabCanvas(canvas);
+        TouchScript.twoGrabs(200, 200, 600, 200).play(engine);
+
+        assertTrue(left.x > 200.0f);
+        assertEquals(200.0f, left.y, 0.0f);
+        assertEquals(600.0f, right.x, 0.0f);
+        assertTrue(right.y > 200.0f);
+        assertEquals(0, engine.getGrabCount());
+    }
+
+    @Test
+    public void everySelectIsPairedWithARelease() {
+        engine.setGrabCanvas(canvas);
+        TouchScript.twoGrabs(200, 200, 600, 200).play(engine);
+
+        assertEquals(2, canvas.selectCount);
+        assertEquals(2, canvas.releaseCount);
+        // The second finger lifts first
+        assertSame(right, canvas.released[0]);
+        assertSame(left, canvas.released[1]);
+        assertEquals(0, canvas.dropCount);
+    }
+
+    @Test
+    public void withoutGrabCanvasLastReleaseDrops() {
+        TouchScript.twoGrabs(200, 200, 600, 200).play(engine);
+
+        assertEquals(2, canvas.selectCount);
+        assertEquals(0, canvas.releaseCount);
+        assertEquals(1, canvas.dropCount);
+    }
+}
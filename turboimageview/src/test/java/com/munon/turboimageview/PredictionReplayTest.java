@@ -0,0 +1,309 @@
+package com.munon.turboimageview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays recorded gestures with touch prediction on and off, with the
+ * display frames driven by hand at 60Hz, and measures how far the shown
+ * pose is from where the finger really is when the frame reaches the
+ * screen. Prediction must cut that lag, and must never leave the object at
+ * a predicted pose once the gesture is re-anchored or ends.
+ */
+public class PredictionReplayTest {
+    private static final int PREDICTION_MILLIS = 8;
+    private static final long FRAME_MILLIS = 16;
+    /** Frames don't line up with the touch samples */
+    private static final long FRAME_PHASE_MILLIS = 5;
+    /** Lets the drag get past the touch slop before the lag is measured */
+    private static final long WARM_UP_MILLIS = 40;
+
+    private BoxCanvas canvas;
+    private GestureEngine<BoxCanvas.Box> engine;
+    private FramePredictor predictor;
+
+    /** Where the frame-less engine put the box after each sample of the script */
+    private float[] actualX;
+
+    /** A TouchPredictor whose frames the test calls instead of the Choreographer */
+    private class FramePredictor extends TouchPredictor {
+        FramePredictor() {
+            super(new PoseListener() {
+                @Override
+                public void onPose(PositionAndScale pose) {
+                    engine.applyPose(pose);
+                }
+            }, PREDICTION_MILLIS);
+        }
+
+        @Override
+        void scheduleFrame() {
+        }
+
+        @Override
+        void unscheduleFrame() {
+        }
+
+        void frame(long frameTime) {
+            if (isFramePosted()) {
+                doFrame(frameTime * 1000000L);
+            }
+        }
+    }
+
+    /** A FlingAnimator whose frames the test calls instead of the Choreographer */
+    private class FrameFlinger extends FlingAnimator {
+        boolean framePending;
+
+        FrameFlinger() {
+            super(new PoseListener() {
+                @Override
+                public boolean onPose(PositionAndScale pose) {
+                    return engine.applyFlingPose(pose);
+                }
+            }, 4.0f);
+            setBounds(-Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+        }
+
+        @Override
+        void scheduleFrame() {
+            framePending = true;
+        }
+
+        @Override
+        void unscheduleFrame() {
+            framePending = false;
+        }
+
+        void frame(long frameTime) {
+            if (framePending) {
+                framePending = false;
+                doFrame(frameTime * 1000000L);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        canvas = new BoxCanvas(new BoxCanvas.Box(200, 200, 100));
+    }
+
+    @Test
+    public void predictionCutsLag() throws IOException {
+        TouchScript drag = TouchScript.drag(180, 200, 60);
+        TouchReplayer replayer = record(drag);
+
+        float lag = meanLag(drag, replayer, false);
+        float predictedLag = meanLag(drag, replayer, true);
+        // 1px/ms, shown 8ms after the frame from samples up to 4ms old
+        assertTrue("lag " + lag, lag > 8.0f);
+        assertTrue("predicted lag " + predictedLag + ", lag " + lag,
+            predictedLag < lag / 4);
+    }
+
+    @Test
+    public void predictionStopsWhenGestureEnds() throws IOException {
+        TouchScript drag = TouchScript.drag(180, 200, 60);
+        TouchReplayer replayer = record(drag);
+        int up = drag.getSampleCount() - 1;
+        long lastMoveTime = drag.getEventTime(up - 1);
+
+        startReplay(true);
+        play(drag, replayer, 0, up);
+        predictor.frame(lastMoveTime);
+        BoxCanvas.Box box = canvas.boxes[0];
+        assertTrue("shown ahead of the finger", box.x > actualX[up - 1] + 1.0f);
+
+        replayer.replay(engine, up, up + 1);
+        assertEquals(actualX[up], box.x, 0.0f);
+        assertFalse(predictor.isFramePosted());
+        assertEquals(1, canvas.dropCount);
+
+        // A frame that was already on its way shows nothing
+        predictor.doFrame((lastMoveTime + FRAME_MILLIS) * 1000000L);
+        assertEquals(actualX[up], box.x, 0.0f);
+    }
+
+    @Test
+    public void predictionStopsWhenGestureReanchors() throws IOException {
+        TouchScript pinch = TouchScript.pinch(180, 200);
+        TouchReplayer replayer = record(pinch);
+        // The second finger goes down after the one finger drag
+        int pointerDown = findPointerDown(pinch);
+        long dragEndTime = pinch.getEventTime(pointerDown - 1);
+
+        startReplay(true);
+        play(pinch, replayer, 0, pointerDown);
+        predictor.frame(dragEndTime);
+        BoxCanvas.Box box = canvas.boxes[0];
+        assertTrue("shown ahead of the finger", box.x > actualX[pointerDown - 1] + 1.0f);
+
+        replayer.replay(engine, pointerDown, pointerDown + 1);
+        assertEquals(actualX[pointerDown], box.x, 0.0f);
+        assertFalse(predictor.isFramePosted());
+
+        // The pinch is then predicted from its own samples, the drag's
+        // velocity would overshoot by 10px
+        for (int i = pointerDown + 1; i < pointerDown + 10; i++) {
+            replayer.replay(engine, i, i + 1);
+            if (!pinch.isHistorical(i)) {
+                predictor.frame(pinch.getEventTime(i));
+                assertEquals(actualX[i], box.x, 3.0f);
+            }
+        }
+    }
+
+    @Test
+    public void flingStartsFromActualPose() throws IOException {
+        TouchScript drag = TouchScript.drag(180, 200, 60);
+        TouchReplayer replayer = record(drag);
+        int up = drag.getSampleCount() - 1;
+
+        startReplay(true);
+        FrameFlinger flinger = new FrameFlinger();
+        engine.setFlinger(flinger);
+        play(drag, replayer, 0, up);
+        predictor.frame(drag.getEventTime(up - 1));
+
+        replayer.replay(engine, up, up + 1);
+        BoxCanvas.Box box = canvas.boxes[0];
+        assertEquals(actualX[up], box.x, 0.0f);
+        assertTrue(flinger.isRunning());
+
+        // Keeps going the way it was dragged, slowing down, until it stops
+        long frameTime = drag.getEventTime(up);
+        float lastX = box.x;
+        float lastStep = Float.MAX_VALUE;
+        int frames = 0;
+        while (flinger.framePending && frames++ < 1000) {
+            frameTime += FRAME_MILLIS;
+            flinger.frame(frameTime);
+            float step = box.x - lastX;
+            assertTrue(step >= 0.0f && step <= lastStep);
+            if (step > 0.0f) {
+                lastStep = step;
+            }
+            lastX = box.x;
+        }
+        assertFalse(flinger.isRunning());
+        assertTrue("flung from " + actualX[up] + " to " + box.x, box.x > actualX[up] + 50.0f);
+        assertEquals(200.0f, box.y, 0.0f);
+        assertFalse(predictor.isFramePosted());
+    }
+
+    /** Mean distance from the shown pose to the finger's, when each frame is on screen */
+    private float meanLag(TouchScript script, TouchReplayer replayer, boolean predict) {
+        startReplay(predict);
+        int up = script.getSampleCount() - 1;
+        long lastMoveTime = script.getEventTime(up - 1);
+        float total = 0.0f;
+        int frames = 0;
+        int next = 0;
+        for (long frameTime = FRAME_PHASE_MILLIS; frameTime + PREDICTION_MILLIS <= lastMoveTime;
+             frameTime += FRAME_MILLIS) {
+            next = playEvents(script, replayer, next, up, frameTime);
+            if (predict) {
+                predictor.frame(frameTime);
+            }
+            if (frameTime >= WARM_UP_MILLIS) {
+                float shownAt = actualXAt(script, frameTime + PREDICTION_MILLIS);
+                total += Math.abs(canvas.boxes[0].x - shownAt);
+                frames++;
+            }
+        }
+        assertTrue(frames > 10);
+        return total / frames;
+    }
+
+    /** Replay the samples in [from, to), with a frame every FRAME_MILLIS */
+    private void play(TouchScript script, TouchReplayer replayer, int from, int to) {
+        int next = from;
+        for (long frameTime = FRAME_PHASE_MILLIS; next < to; frameTime += FRAME_MILLIS) {
+            next = playEvents(script, replayer, next, to, frameTime);
+            predictor.frame(frameTime);
+        }
+    }
+
+    /**
+     * Replay the whole events, below to, whose samples all came in by
+     * frameTime, as they would have been delivered before that frame
+     *
+     * @return the first sample not replayed
+     */
+    private int playEvents(TouchScript script, TouchReplayer replayer, int from, int to,
+                           long frameTime) {
+        int next = from;
+        while (next < to) {
+            int end = next;
+            while (script.isHistorical(end)) {
+                end++;
+            }
+            if (end >= to || script.getEventTime(end) > frameTime) {
+                break;
+            }
+            replayer.replay(engine, next, end + 1);
+            next = end + 1;
+        }
+        return next;
+    }
+
+    private void startReplay(boolean predict) {
+        canvas.reset();
+        engine = new GestureEngine<>(canvas, true);
+        predictor = predict ? new FramePredictor() : null;
+        engine.setPredictor(predictor);
+    }
+
+    /**
+     * Record the script played live, and note where the box is after each
+     * sample without prediction: the pose of the finger at that time
+     */
+    private TouchReplayer record(TouchScript script) throws IOException {
+        TouchRecorder recorder = new TouchRecorder();
+        startReplay(false);
+        engine.setTouchRecorder(recorder);
+        script.play(engine);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        TouchReplayer replayer = new TouchReplayer(new ByteArrayInputStream(out.toByteArray()));
+
+        startReplay(false);
+        actualX = new float[replayer.getSampleCount()];
+        for (int i = 0; i < actualX.length; i++) {
+            replayer.replay(engine, i, i + 1);
+            actualX[i] = canvas.boxes[0].x;
+        }
+        return replayer;
+    }
+
+    /** The actual x at the given time, between the samples around it */
+    private float actualXAt(TouchScript script, long time) {
+        for (int i = 1; i < script.getSampleCount(); i++) {
+            long sampleTime = script.getEventTime(i);
+            if (sampleTime >= time) {
+                long previousTime = script.getEventTime(i - 1);
+                float t = (float) (time - previousTime) / (sampleTime - previousTime);
+                return actualX[i - 1] + (actualX[i] - actualX[i - 1]) * t;
+            }
+        }
+        return actualX[actualX.length - 1];
+    }
+
+    /** The sample where the second finger goes down */
+    private static int findPointerDown(TouchScript script) {
+        for (int i = 0; i < script.getSampleCount(); i++) {
+            if (script.getAction(i) == (TouchScript.ACTION_POINTER_DOWN
+                | (1 << TouchScript.ACTION_POINTER_INDEX_SHIFT))) {
+                return i;
+            }
+        }
+        throw new AssertionError("No second finger");
+    }
+}
@@ -0,0 +1,134 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Scene snapshots restore every object as it was saved, and are smaller than
+ * Java serialization of the same objects. The 10,000 object comparison only
+ * runs with the stress tests: ./gradlew testDebug -Pstress
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SceneSnapshotTest {
+    private static final int LARGE_SCENE = 10000;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void restoresEveryObjectAsSaved() throws IOException {
+        List<MultiTouchObject> objects = createScene(100, new Random(1));
+        List<MultiTouchObject> restored = read(write(objects));
+
+        assertEquals(objects.size(), restored.size());
+        for (int i = 0; i < objects.size(); i++) {
+            MultiTouchObject object = objects.get(i);
+            MultiTouchObject copy = restored.get(i);
+            assertEquals(object.getClass(), copy.getClass());
+            assertEquals(object.getWidth(), copy.getWidth());
+            assertEquals(object.getHeight(), copy.getHeight());
+            assertEquals(object.getCenterX(), copy.getCenterX(), 0.0f);
+            assertEquals(object.getCenterY(), copy.getCenterY(), 0.0f);
+            assertEquals(object.getScaleX(), copy.getScaleX(), 0.0f);
+            assertEquals(object.getScaleY(), copy.getScaleY(), 0.0f);
+            assertEquals(object.getAngle(), copy.getAngle(), 0.0f);
+            assertEquals(object.isFlippedHorizontally(), copy.isFlippedHorizontally());
+            assertEquals(object.isSelected(), copy.isSelected());
+            assertEquals(object.getBorderColor(), copy.getBorderColor());
+            if (object instanceof ImageObject) {
+                assertEquals(((ImageObject) object).getResourceId(),
+                    ((ImageObject) copy).getResourceId());
+            }
+        }
+    }
+
+    @Test
+    public void largeSceneIsSmallerThanSerializable() throws IOException, ClassNotFoundException {
+        assumeTrue(Boolean.getBoolean("turbo.stress"));
+        List<MultiTouchObject> objects = createScene(LARGE_SCENE, new Random(2));
+
+        byte[] snapshot = write(objects);
+        assertEquals(LARGE_SCENE, read(snapshot).size());
+        byte[] serialized = serialize(objects);
+        assertEquals(LARGE_SCENE, deserialize(serialized).size());
+        assertTrue(snapshot.length < serialized.length);
+    }
+
+    /** Image objects from files and resources at random transforms, never decoded */
+    private List<MultiTouchObject> createScene(int objectCount, Random random) {
+        List<MultiTouchObject> objects = new ArrayList<>(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            int width = 100 + random.nextInt(4000);
+            int height = 100 + random.nextInt(3000);
+            MultiTouchObject object = i % 4 == 3
+                ? ImageObject.createPlaceholder(android.R.drawable.star_big_on, context,
+                    width, height)
+                : ImageObject.createPlaceholder(
+                    ImageSource.fromFile("/sdcard/DCIM/photo" + i + ".jpg"), context,
+                    width, height);
+            object.restoreState(random.nextFloat() * 1080, random.nextFloat() * 1920,
+                0.1f + random.nextFloat(), 0.1f + random.nextFloat(),
+                (float) (random.nextFloat() * 2 * Math.PI), random.nextBoolean(),
+                random.nextInt(10) == 0, random.nextInt());
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    private static byte[] write(List<MultiTouchObject> objects) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Buffered, as TurboImageView.saveScene() does
+        SceneSnapshot.write(objects, new DataOutputStream(new BufferedOutputStream(out)));
+        return out.toByteArray();
+    }
+
+    private List<MultiTouchObject> read(byte[] snapshot) throws IOException {
+        return SceneSnapshot.read(context,
+            new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(snapshot))));
+    }
+
+    private static byte[] serialize(List<MultiTouchObject> objects) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(new BufferedOutputStream(out));
+        objectOut.writeObject(new ArrayList<>(objects));
+        objectOut.close();
+        return out.toByteArray();
+    }
+
+    private static List<?> deserialize(byte[] serialized)
+        throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(
+            new BufferedInputStream(new ByteArrayInputStream(serialized)));
+        try {
+            return (List<?>) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.munon.turboimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * How drawing, hit-testing, selecting and removing scale with the number of
+ * objects in the view, from 10 to 10,000. Each operation is timed and its
+ * allocations counted per call, with and without the SceneStore, and the
+ * curves are written to build/reports/stress/scene-stress.csv.
+ *
+ * Slow, so only run when asked for: ./gradlew testDebug -Pstress
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SceneStressTest {
+    private static final int[] OBJECT_COUNTS = {10, 100, 1000, 10000};
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int FRAME_COUNT = 30;
+    private static final int PROBE_COUNT = 500;
+    private static final int SELECT_COUNT = 200;
+    private static final int MAX_REMOVE_COUNT = 50;
+    private static final int WARMUP_COUNT = 5;
+
+    private final List<Curve> curves = new ArrayList<>();
+    private Context context;
+    private Bitmap bitmap;
+    private long allocationOverhead;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("turbo.stress"));
+        context = RuntimeEnvironment.application;
+        bitmap = Bitmap.createBitmap(256, 192, Bitmap.Config.ARGB_8888);
+        long start = allocatedBytes();
+        allocationOverhead = allocatedBytes() - start;
+    }
+
+    @Test
+    public void scalingCurves() throws IOException {
+        for (int objectCount : OBJECT_COUNTS) {
+            measure(objectCount, false);
+            measure(objectCount, true);
+        }
+        writeReport(new File(System.getProperty("turbo.stress.dir", "build/reports/stress"),
+            "scene-stress.csv"));
+    }
+
+    private void measure(int objectCount, boolean sceneStore) {
+        String variant = sceneStore ? "sceneStore" : "default";
+        Random random = new Random(objectCount);
+        TurboImageView view = createView(objectCount, sceneStore, random);
+        assertEquals(objectCount, view.getObjectCount());
+        PointInfo point = new PointInfo();
+
+        // Frames
+        StubCanvas canvas = new StubCanvas(WIDTH, HEIGHT);
+        Curve draw = curve("onDraw", variant, objectCount);
+        for (int i = -WARMUP_COUNT; i < FRAME_COUNT; i++) {
+            canvas.resetCounts();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            view.onDraw(canvas);
+            draw.add(i, System.nanoTime() - start, allocatedSince(bytes));
+        }
+        assertTrue(canvas.bitmapCount > 0);
+
+        // Hit tests at random points
+        Curve hitTest = curve("getDraggableObjectAtPoint", variant, objectCount);
+        int hits = 0;
+        for (int i = -WARMUP_COUNT; i < PROBE_COUNT; i++) {
+            setPoint(point, random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT, true);
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            MultiTouchObject hit = view.getDraggableObjectAtPoint(point);
+            hitTest.add(i, System.nanoTime() - start, allocatedSince(bytes));
+            if (hit != null) {
+                hits++;
+            }
+        }
+        assertTrue(hits > 0);
+
+        // Drag starts on random objects, each followed by the drop
+        Curve select = curve("selectObject", variant, objectCount);
+        for (int i = -WARMUP_COUNT; i < SELECT_COUNT; i++) {
+            MultiTouchObject object = view.getObject(random.nextInt(objectCount));
+            setPoint(point, object.getCenterX(), object.getCenterY(), true);
+            // As the gesture engine does before a drag starts
+            view.deselectAll();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            view.selectObject(object, point);
+            select.add(i, System.nanoTime() - start, allocatedSince(bytes));
+            setPoint(point, object.getCenterX(), object.getCenterY(), false);
+            view.selectObject(null, point);
+            assertEquals(objectCount - 1, view.getObjectIndex(object));
+        }
+
+        // Removal of random objects, one at a time
+        Curve remove = curve("removeSelectedObject", variant, objectCount);
+        int removeCount = Math.min(objectCount / 2, MAX_REMOVE_COUNT);
+        for (int i = 0; i < removeCount; i++) {
+            view.addToSelection(view.getObject(random.nextInt(view.getObjectCount())));
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            view.removeSelectedObject();
+            // Too few removals in small scenes to spare any for warming up
+            remove.add(0, System.nanoTime() - start, allocatedSince(bytes));
+        }
+        assertEquals(objectCount - removeCount, view.getObjectCount());
+
+        view.removeAllObjects();
+    }
+
+    /** A laid out view holding objectCount images at random transforms */
+    private TurboImageView createView(int objectCount, boolean sceneStore, Random random) {
+        TurboImageView view = new TurboImageView(context);
+        view.setSceneStoreEnabled(sceneStore);
+        view.setSelectOnObjectAdded(false);
+        view.layout(0, 0, WIDTH, HEIGHT);
+
+        PositionAndScale posAndScale = new PositionAndScale();
+        PointInfo point = new PointInfo();
+        setPoint(point, 0, 0, false);
+        for (int i = 0; i < objectCount; i++) {
+            view.addObject(context, new BitmapDrawable(context.getResources(), bitmap));
+            float scale = 0.25f + random.nextFloat();
+            posAndScale.set(random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT,
+                true, scale, false, scale, scale, true,
+                (float) (random.nextFloat() * 2 * Math.PI));
+            view.setPositionAndScale(view.getObject(i), posAndScale, point);
+        }
+        return view;
+    }
+
+    private static void setPoint(PointInfo point, float x, float y, boolean down) {
+        point.set(1, new float[]{x}, new float[]{y}, new float[]{1.0f}, new int[]{0},
+            down ? 0 /* ACTION_DOWN */ : 1 /* ACTION_UP */, down, 0);
+    }
+
+    private Curve curve(String operation, String variant, int objectCount) {
+        Curve curve = new Curve(operation, variant, objectCount);
+        curves.add(curve);
+        return curve;
+    }
+
+    /** Bytes allocated by this thread so far, or 0 if the JVM can't tell */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Bytes allocated since the given allocatedBytes(), less what reading it costs */
+    private long allocatedSince(long bytes) {
+        return Math.max(0, allocatedBytes() - bytes - allocationOverhead);
+    }
+
+    private void writeReport(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new FileWriter(file);
+        try {
+            out.write("operation,variant,objects,samples,median_ns,p90_ns,max_ns,"
+                + "mean_alloc_bytes\n");
+            for (Curve curve : curves) {
+                out.write(curve.toCsv());
+                out.write('\n');
+                System.out.println(curve);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** The timings and allocations of one operation at one object count */
+    private static class Curve {
+        final String operation;
+        final String variant;
+        final int objectCount;
+        private long[] nanos = new long[16];
+        private long allocated;
+        private int count;
+
+        Curve(String operation, String variant, int objectCount) {
+            this.operation = operation;
+            this.variant = variant;
+            this.objectCount = objectCount;
+        }
+
+        /** Add a sample, unless it is one of the warm-up runs (negative index) */
+        void add(int index, long duration, long bytes) {
+            if (index < 0) {
+                return;
+            }
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = duration;
+            allocated += bytes;
+        }
+
+        long percentile(double fraction) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) (fraction * count))];
+        }
+
+        String toCsv() {
+            return String.format(Locale.US, "%s,%s,%d,%d,%d,%d,%d,%d", operation, variant,
+                objectCount, count, percentile(0.5), percentile(0.9), percentile(1.0),
+                allocated / count);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-26s %-10s %6d objects: median %9d ns, "
+                    + "p90 %9d ns, %7d bytes/call", operation, variant, objectCount,
+                percentile(0.5), percentile(0.9), allocated / count);
+        }
+    }
+}
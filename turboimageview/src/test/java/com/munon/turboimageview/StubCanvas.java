@@ -0,0 +1,101 @@
+package com.munon.turboimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * A canvas that only counts what is drawn on it. Every call the view and
+ * the objects make is overridden, so no drawing (and none of Robolectric's
+ * recording of it) ends up in the timings or the allocation counts.
+ */
+class StubCanvas extends Canvas {
+    private final int width;
+    private final int height;
+    private int saveCount;
+    int bitmapCount;
+    int rectCount;
+
+    StubCanvas(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    void resetCounts() {
+        bitmapCount = 0;
+        rectCount = 0;
+    }
+
+    @Override
+    public int save() {
+        return saveCount++;
+    }
+
+    @Override
+    public void restore() {
+        saveCount--;
+    }
+
+    @Override
+    public void concat(Matrix matrix) {
+    }
+
+    @Override
+    public boolean getClipBounds(Rect bounds) {
+        bounds.set(0, 0, width, height);
+        return true;
+    }
+
+    @Override
+    public boolean quickReject(RectF rect, EdgeType type) {
+        return rect.right <= 0 || rect.bottom <= 0 || rect.left >= width || rect.top >= height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        bitmapCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        bitmapCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        bitmapCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        bitmapCount++;
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        rectCount++;
+    }
+
+    @Override
+    public void drawRect(RectF rect, Paint paint) {
+        rectCount++;
+    }
+
+    @Override
+    public void drawRect(Rect rect, Paint paint) {
+        rectCount++;
+    }
+}
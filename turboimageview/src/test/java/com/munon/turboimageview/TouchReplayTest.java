@@ -0,0 +1,110 @@
+package com.munon.turboimageview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A recorded gesture must replay exactly like the live one, history samples
+ * and event boundaries included, and reach the same pose on every replay.
+ */
+public class TouchReplayTest {
+    private BoxCanvas canvas;
+    private TouchScript pinch;
+
+    @Before
+    public void setUp() {
+        canvas = new BoxCanvas(new BoxCanvas.Box(200, 200, 100));
+        pinch = TouchScript.pinch(180, 200);
+    }
+
+    @Test
+    public void replayMatchesLiveGesture() throws IOException {
+        assertReplayMatchesLiveGesture(false);
+    }
+
+    @Test
+    public void coalescedReplayMatchesLiveGesture() throws IOException {
+        // Coalescing only moves the box on the current sample of each event,
+        // so the move count shows whether history and event ends came back
+        assertReplayMatchesLiveGesture(true);
+    }
+
+    @Test
+    public void replaysAreDeterministic() throws IOException {
+        TouchReplayer replayer = record(false);
+        GestureEngine<BoxCanvas.Box> engine = new GestureEngine<>(canvas, true);
+
+        canvas.reset();
+        replayer.replay(engine);
+        Pose first = new Pose(canvas);
+
+        canvas.reset();
+        replayer.replay(engine);
+        first.assertSame(new Pose(canvas));
+    }
+
+    private void assertReplayMatchesLiveGesture(boolean coalesce) throws IOException {
+        canvas.reset();
+        TouchReplayer replayer = record(coalesce);
+        Pose live = new Pose(canvas);
+        assertEquals(pinch.getSampleCount(), replayer.getSampleCount());
+
+        canvas.reset();
+        GestureEngine<BoxCanvas.Box> engine = new GestureEngine<>(canvas, true);
+        engine.setCoalesceHistory(coalesce);
+        replayer.replay(engine);
+        live.assertSame(new Pose(canvas));
+    }
+
+    /** Play the pinch live, recording it */
+    private TouchReplayer record(boolean coalesce) throws IOException {
+        TouchRecorder recorder = new TouchRecorder();
+        GestureEngine<BoxCanvas.Box> engine = new GestureEngine<>(canvas, true);
+        engine.setCoalesceHistory(coalesce);
+        engine.setTouchRecorder(recorder);
+        pinch.play(engine);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        return new TouchReplayer(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /** Where the gesture left the box, and how it got there */
+    private static final class Pose {
+        final float x;
+        final float y;
+        final float scale;
+        final float angle;
+        final int moveCount;
+        final int selectCount;
+        final int dropCount;
+
+        Pose(BoxCanvas canvas) {
+            BoxCanvas.Box box = canvas.boxes[0];
+            x = box.x;
+            y = box.y;
+            scale = box.scale;
+            angle = box.angle;
+            moveCount = box.moveCount;
+            selectCount = canvas.selectCount;
+            dropCount = canvas.dropCount;
+        }
+
+        void assertSame(Pose other) {
+            assertTrue(moveCount > 0);
+            // Bit for bit, the replay runs the same float operations
+            assertEquals(x, other.x, 0.0f);
+            assertEquals(y, other.y, 0.0f);
+            assertEquals(scale, other.scale, 0.0f);
+            assertEquals(angle, other.angle, 0.0f);
+            assertEquals(moveCount, other.moveCount);
+            assertEquals(selectCount, other.selectCount);
+            assertEquals(dropCount, other.dropCount);
+        }
+    }
+}
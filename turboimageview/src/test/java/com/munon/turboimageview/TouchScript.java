@@ -0,0 +1,198 @@
+package com.munon.turboimageview;
+
+import java.util.Arrays;
+
+/**
+ * A scripted touch gesture of up to two pointers, fed to a GestureEngine the
+ * way MultiTouchController feeds MotionEvents: the history samples of each
+ * event, then its current sample, then endEvent(). The samples are stored in
+ * flat arrays, so playing a script allocates nothing.
+ */
+class TouchScript {
+    // Same values as the MotionEvent constants
+    static final int ACTION_DOWN = 0;
+    static final int ACTION_UP = 1;
+    static final int ACTION_MOVE = 2;
+    static final int ACTION_POINTER_DOWN = 5;
+    static final int ACTION_POINTER_UP = 6;
+    static final int ACTION_POINTER_INDEX_SHIFT = 8;
+
+    private static final int MAX_POINTERS = 2;
+
+    private int[] pointerCounts = new int[64];
+    private int[] actions = new int[64];
+    private boolean[] downs = new boolean[64];
+    private boolean[] historicals = new boolean[64];
+    private long[] eventTimes = new long[64];
+    private float[] xs = new float[64 * MAX_POINTERS];
+    private float[] ys = new float[64 * MAX_POINTERS];
+    private int sampleCount;
+
+    private final float[] x = new float[PointInfo.MAX_TOUCH_POINTS];
+    private final float[] y = new float[PointInfo.MAX_TOUCH_POINTS];
+    private final float[] pressure = new float[PointInfo.MAX_TOUCH_POINTS];
+    private final int[] pointerIds = new int[PointInfo.MAX_TOUCH_POINTS];
+
+    TouchScript() {
+        Arrays.fill(pressure, 1.0f);
+        for (int i = 0; i < pointerIds.length; i++) {
+            pointerIds[i] = i;
+        }
+    }
+
+    /**
+     * A one finger drag from (x, y) to the right at 1px/ms, then a lift
+     * without stopping. Each event holds one history sample, 4ms apart.
+     */
+    static TouchScript drag(float x, float y, int events) {
+        TouchScript script = new TouchScript();
+        long time = 0;
+        script.sample(ACTION_DOWN, true, time, false, x, y);
+        for (int event = 0; event < events; event++) {
+            for (int i = 0; i < 2; i++) {
+                x += 4;
+                script.sample(ACTION_MOVE, true, time += 4, i < 1, x, y);
+            }
+        }
+        script.sample(ACTION_UP, false, time + 4, false, x, y);
+        return script;
+    }
+
+    /**
+     * A one finger drag from (x, y) that a second finger, 80px to the right,
+     * turns into a pinch that stretches and turns the object, then the second
+     * finger lifts and the first one drags on and lifts. Each event holds
+     * two history samples, 4ms apart.
+     */
+    static TouchScript pinch(float x, float y) {
+        TouchScript script = new TouchScript();
+        long time = 0;
+        script.sample(ACTION_DOWN, true, time, false, x, y);
+        for (int event = 0; event < 10; event++) {
+            for (int i = 0; i < 3; i++) {
+                x += 5;
+                script.sample(ACTION_MOVE, true, time += 4, i < 2, x, y);
+            }
+        }
+        float x2 = x + 80;
+        float y2 = y;
+        script.sample(ACTION_POINTER_DOWN | (1 << ACTION_POINTER_INDEX_SHIFT), true,
+            time += 4, false, x, y, x2, y2);
+        for (int event = 0; event < 15; event++) {
+            for (int i = 0; i < 3; i++) {
+                x2 += 4;
+                y2 += 2;
+                script.sample(ACTION_MOVE, true, time += 4, i < 2, x, y, x2, y2);
+            }
+        }
+        script.sample(ACTION_POINTER_UP | (1 << ACTION_POINTER_INDEX_SHIFT), false,
+            time += 4, false, x, y, x2, y2);
+        for (int event = 0; event < 5; event++) {
+            for (int i = 0; i < 3; i++) {
+                y += 5;
+                script.sample(ACTION_MOVE, true, time += 4, i < 2, x, y);
+            }
+        }
+        script.sample(ACTION_UP, false, time + 4, false, x, y);
+        return script;
+    }
+
+    /**
+     * A finger drags the object at (x1, y1) to the right, a second finger
+     * lands on (x2, y2) and drags down while the first one keeps going, then
+     * the second finger lifts before the first. Each event holds one history
+     * sample, 4ms apart.
+     */
+    static TouchScript twoGrabs(float x1, float y1, float x2, float y2) {
+        TouchScript script = new TouchScript();
+        long time = 0;
+        script.sample(ACTION_DOWN, true, time, false, x1, y1);
+        for (int event = 0; event < 5; event++) {
+            for (int i = 0; i < 2; i++) {
+                x1 += 4;
+                script.sample(ACTION_MOVE, true, time += 4, i < 1, x1, y1);
+            }
+        }
+        script.sample(ACTION_POINTER_DOWN | (1 << ACTION_POINTER_INDEX_SHIFT), true,
+            time += 4, false, x1, y1, x2, y2);
+        for (int event = 0; event < 5; event++) {
+            for (int i = 0; i < 2; i++) {
+                x1 += 4;
+                y2 += 4;
+                script.sample(ACTION_MOVE, true, time += 4, i < 1, x1, y1, x2, y2);
+            }
+        }
+        script.sample(ACTION_POINTER_UP | (1 << ACTION_POINTER_INDEX_SHIFT), false,
+            time += 4, false, x1, y1, x2, y2);
+        for (int event = 0; event < 3; event++) {
+            for (int i = 0; i < 2; i++) {
+                x1 += 4;
+                script.sample(ACTION_MOVE, true, time += 4, i < 1, x1, y1);
+            }
+        }
+        script.sample(ACTION_UP, false, time + 4, false, x1, y1);
+        return script;
+    }
+
+    /** Add a sample, coords holds x and y of each pointer */
+    TouchScript sample(int action, boolean down, long eventTime, boolean historical,
+                       float... coords) {
+        if (sampleCount == actions.length) {
+            int capacity = sampleCount * 2;
+            pointerCounts = Arrays.copyOf(pointerCounts, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            downs = Arrays.copyOf(downs, capacity);
+            historicals = Arrays.copyOf(historicals, capacity);
+            eventTimes = Arrays.copyOf(eventTimes, capacity);
+            xs = Arrays.copyOf(xs, capacity * MAX_POINTERS);
+            ys = Arrays.copyOf(ys, capacity * MAX_POINTERS);
+        }
+        int n = sampleCount++;
+        pointerCounts[n] = coords.length / 2;
+        actions[n] = action;
+        downs[n] = down;
+        historicals[n] = historical;
+        eventTimes[n] = eventTime;
+        for (int p = 0; p < pointerCounts[n]; p++) {
+            xs[n * MAX_POINTERS + p] = coords[p * 2];
+            ys[n * MAX_POINTERS + p] = coords[p * 2 + 1];
+        }
+        return this;
+    }
+
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    long getEventTime(int sample) {
+        return eventTimes[sample];
+    }
+
+    int getAction(int sample) {
+        return actions[sample];
+    }
+
+    boolean isHistorical(int sample) {
+        return historicals[sample];
+    }
+
+    /** Feed every sample to the engine */
+    void play(GestureEngine<?> engine) {
+        play(engine, 0, sampleCount);
+    }
+
+    /** Feed the samples from (inclusive) to to (exclusive) to the engine */
+    void play(GestureEngine<?> engine, int from, int to) {
+        for (int n = from; n < to; n++) {
+            for (int p = 0; p < pointerCounts[n]; p++) {
+                x[p] = xs[n * MAX_POINTERS + p];
+                y[p] = ys[n * MAX_POINTERS + p];
+            }
+            engine.onTouchSample(pointerCounts[n], x, y, pressure, pointerIds, actions[n],
+                downs[n], eventTimes[n], historicals[n]);
+            if (!historicals[n]) {
+                engine.endEvent();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.munon.turboimageview;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs ZOrderList and an ArrayList through the same random operations and
+ * checks they always agree. The seed is fixed, so a failure reproduces.
+ */
+public class ZOrderListTest {
+    private static final long SEED = 0x5EEDL;
+    private static final int OPERATIONS = 200000;
+    private static final int MAX_SIZE = 300;
+
+    @Test
+    public void matchesArrayList() {
+        Random random = new Random(SEED);
+        ZOrderList<Object> list = new ZOrderList<>();
+        List<Object> model = new ArrayList<>();
+
+        for (int op = 0; op < OPERATIONS; op++) {
+            int size = model.size();
+            // Grow while small, so most operations work on a few hundred elements
+            int choice = size < 2 ? 0 : random.nextInt(size >= MAX_SIZE ? 11 : 12);
+            switch (choice) {
+                case 0:
+                case 11: {
+                    Object element = new Object();
+                    assertTrue(list.add(element));
+                    model.add(element);
+                    break;
+                }
+                case 1: {
+                    Object element = new Object();
+                    int index = random.nextInt(size + 1);
+                    list.add(index, element);
+                    model.add(index, element);
+                    break;
+                }
+                case 2: {
+                    int index = random.nextInt(size);
+                    assertSame(model.remove(index), list.remove(index));
+                    break;
+                }
+                case 3: {
+                    Object element = model.get(random.nextInt(size));
+                    assertTrue(list.remove(element));
+                    model.remove(element);
+                    assertFalse(list.remove(element));
+                    break;
+                }
+                case 4: {
+                    Object element = model.get(random.nextInt(size));
+                    int index = random.nextInt(size);
+                    list.moveTo(element, index);
+                    model.remove(element);
+                    model.add(index, element);
+                    break;
+                }
+                case 5: {
+                    Object element = model.get(random.nextInt(size));
+                    list.bringToFront(element);
+                    model.remove(element);
+                    model.add(element);
+                    break;
+                }
+                case 6: {
+                    Object element = model.get(random.nextInt(size));
+                    list.sendToBack(element);
+                    model.remove(element);
+                    model.add(0, element);
+                    break;
+                }
+                case 7: {
+                    Object element = new Object();
+                    int index = random.nextInt(size);
+                    assertSame(model.set(index, element), list.set(index, element));
+                    break;
+                }
+                case 8: {
+                    int index = random.nextInt(size);
+                    Object element = model.get(index);
+                    assertSame(element, list.get(index));
+                    assertEquals(index, list.indexOf(element));
+                    assertTrue(list.contains(element));
+                    break;
+                }
+                case 9: {
+                    // Remove every third element through the iterator
+                    Iterator<Object> iterator = list.iterator();
+                    Iterator<Object> modelIterator = model.iterator();
+                    for (int i = 0; iterator.hasNext(); i++) {
+                        assertSame(modelIterator.next(), iterator.next());
+                        if (i % 3 == 0 && random.nextInt(8) == 0) {
+                            iterator.remove();
+                            modelIterator.remove();
+                        }
+                    }
+                    assertFalse(modelIterator.hasNext());
+                    break;
+                }
+                default: {
+                    if (random.nextInt(2000) == 0) {
+                        list.clear();
+                        model.clear();
+                    }
+                    Object stranger = new Object();
+                    assertEquals(-1, list.indexOf(stranger));
+                    assertFalse(list.contains(stranger));
+                    break;
+                }
+            }
+            assertEquals(model.size(), list.size());
+            if (op % 1000 == 0) {
+                assertSameOrder(model, list);
+            }
+        }
+        assertSameOrder(model, list);
+    }
+
+    @Test
+    public void iteratorFailsFastOnChanges() {
+        ZOrderList<Object> list = new ZOrderList<>();
+        Object first = new Object();
+        Object second = new Object();
+        list.add(first);
+        list.add(second);
+
+        assertConcurrentChangeDetected(list, new Change() {
+            @Override
+            public void apply(ZOrderList<Object> list) {
+                list.add(new Object());
+            }
+        });
+        assertConcurrentChangeDetected(list, new Change() {
+            @Override
+            public void apply(ZOrderList<Object> list) {
+                list.add(0, new Object());
+            }
+        });
+        assertConcurrentChangeDetected(list, new Change() {
+            @Override
+            public void apply(ZOrderList<Object> list) {
+                list.remove(list.size() - 1);
+            }
+        });
+        assertConcurrentChangeDetected(list, new Change() {
+            @Override
+            public void apply(ZOrderList<Object> list) {
+                list.remove(list.get(0));
+            }
+        });
+        assertConcurrentChangeDetected(list, new Change() {
+            @Override
+            public void apply(ZOrderList<Object> list) {
+                list.moveTo(list.get(0), list.size() - 1);
+            }
+        });
+        assertConcurrentChangeDetected(list, new Change() {
+            @Override
+            public void apply(ZOrderList<Object> list) {
+                list.clear();
+            }
+        });
+    }
+
+    private interface Change {
+        void apply(ZOrderList<Object> list);
+    }
+
+    private static void assertConcurrentChangeDetected(ZOrderList<Object> list, Change change) {
+        while (list.size() < 3) {
+            list.add(new Object());
+        }
+        Iterator<Object> iterator = list.iterator();
+        iterator.next();
+        change.apply(list);
+        try {
+            iterator.next();
+            fail("Change while iterating was not detected");
+        } catch (ConcurrentModificationException expected) {
+            // Like ArrayList's iterators
+        }
+    }
+
+    private static void assertSameOrder(List<Object> model, ZOrderList<Object> list) {
+        int index = 0;
+        for (Object element : list) {
+            assertSame(model.get(index++), element);
+        }
+        assertEquals(model.size(), index);
+        Iterator<Object> descending = list.descendingIterator();
+        for (int i = model.size() - 1; i >= 0; i--) {
+            assertSame(model.get(i), descending.next());
+        }
+        assertFalse(descending.hasNext());
+    }
+}